@@ -0,0 +1,212 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tlc2.monitor;
+
+import tlc2.TLC;
+import tlc2.monitor.util.ConsoleLogger;
+import tlc2.monitor.util.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Application class-data-sharing archive for TLC child processes.
+ * <p>
+ * The archive is built once from the classes loaded by a short training run of TLC, and is reused by every
+ * TLC child process launched by the monitor, saving much of the cost of loading TLC, Kafka and Jackson classes
+ * at JVM startup. Archives are stored in the given directory keyed by the JVM and classpath they were built
+ * for, so they survive monitor restarts and are rebuilt whenever the JVM or the classpath jars change.
+ * <p>
+ * Only the leading jars of the monitor's classpath are archived: archived classpaths may not contain
+ * directories, and the archived classpath must be a prefix of the child classpath, to which the module
+ * directory is appended.
+ */
+final class ClassDataArchive {
+    private static final Logger LOGGER = new ConsoleLogger();
+    private static final String TLC_CLASS = TLC.class.getName();
+    private static final long BUILD_TIMEOUT_MINUTES = 5;
+
+    private final File dir;
+    private final String classpath;
+    private final File archiveFile;
+    private volatile boolean available;
+
+    private ClassDataArchive(File dir, String classpath, String key) {
+        this.dir = dir;
+        this.classpath = classpath;
+        this.archiveFile = new File(dir, String.format("tlc-%s.jsa", key));
+        this.available = archiveFile.exists();
+    }
+
+    /**
+     * Returns a class-data-sharing archive for the current JVM and classpath.
+     *
+     * @param dir the directory in which to store archives
+     * @return the archive, or {@code null} if application class-data sharing is not supported
+     */
+    static ClassDataArchive create(File dir) throws IOException {
+        // Application class-data sharing of the kind used here requires Java 11 or newer.
+        if (System.getProperty("java.specification.version").startsWith("1.")) {
+            LOGGER.log("Class-data sharing is not supported by this JVM");
+            return null;
+        }
+
+        List<String> jars = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            File file = new File(entry);
+            if (!file.isFile() || !entry.endsWith(".jar")) {
+                break;
+            }
+            jars.add(file.getAbsolutePath());
+        }
+        if (jars.isEmpty()) {
+            LOGGER.log("Class-data sharing is not supported for classpaths without leading jars");
+            return null;
+        }
+        return new ClassDataArchive(dir, String.join(File.pathSeparator, jars), getKey(jars));
+    }
+
+    /**
+     * Computes the key identifying archives built for the current JVM and the given jars.
+     *
+     * @param jars the archived jars
+     * @return the archive key
+     */
+    private static String getKey(Collection<String> jars) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(System.getProperty("java.home").getBytes(StandardCharsets.UTF_8));
+            digest.update(System.getProperty("java.vm.version").getBytes(StandardCharsets.UTF_8));
+            for (String jar : jars) {
+                File file = new File(jar);
+                digest.update(String.format("%s:%d:%d", jar, file.length(), file.lastModified())
+                    .getBytes(StandardCharsets.UTF_8));
+            }
+            StringBuilder key = new StringBuilder();
+            byte[] hash = digest.digest();
+            for (int i = 0; i < 8; i++) {
+                key.append(String.format("%02x", hash[i]));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Returns whether the archive has been built.
+     *
+     * @return whether the archive is available to TLC child processes
+     */
+    boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * Builds the archive from the classes loaded by a training run of TLC.
+     * <p>
+     * The training run's verdict is irrelevant; it only needs to load the classes used to check a window. If the
+     * training run or the dump does not finish in time, it's killed and the archive is not built.
+     *
+     * @param args the TLC arguments for the training run
+     * @param env  the TLC environment for the training run
+     */
+    void build(List<String> args, Map<String, String> env) throws IOException, InterruptedException {
+        if (available) {
+            return;
+        }
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create class-data sharing directory " + dir);
+        }
+
+        LOGGER.log("Building class-data sharing archive %s", archiveFile);
+        File classList = new File(dir, archiveFile.getName() + ".classlist");
+        File log = new File(dir, archiveFile.getName() + ".log");
+
+        // Record the classes loaded while checking a window.
+        List<String> training = TLCRunner.command(
+            TLC_CLASS, Collections.singletonList("-XX:DumpLoadedClassList=" + classList.getAbsolutePath()));
+        training.addAll(args);
+        ProcessBuilder trainingBuilder = new ProcessBuilder(training)
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.to(log));
+        trainingBuilder.environment().putAll(env);
+        if (!waitFor(trainingBuilder.start())) {
+            LOGGER.log("Class-data sharing training run timed out; see %s", log);
+            return;
+        }
+
+        // Dump the recorded classes into a temporary archive and atomically move it into place.
+        File tempFile = new File(dir, archiveFile.getName() + ".tmp");
+        List<String> dump = new ArrayList<>(Arrays.asList(
+            TLCRunner.jvm(),
+            "-Xshare:dump",
+            "-XX:SharedClassListFile=" + classList.getAbsolutePath(),
+            "-XX:SharedArchiveFile=" + tempFile.getAbsolutePath(),
+            "-cp",
+            classpath));
+        Process dumpProcess = new ProcessBuilder(dump)
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.appendTo(log))
+            .start();
+        if (!waitFor(dumpProcess) || dumpProcess.exitValue() != 0 || !tempFile.exists()) {
+            LOGGER.log("Failed to build class-data sharing archive; see %s", log);
+            return;
+        }
+        Files.move(tempFile.toPath(), archiveFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(classList.toPath());
+        available = true;
+        LOGGER.log("Built class-data sharing archive %s", archiveFile);
+    }
+
+    /**
+     * Waits for a build process to exit, killing it if it does not exit in time.
+     *
+     * @param process the process for which to wait
+     * @return whether the process exited before the timeout
+     */
+    private static boolean waitFor(Process process) throws InterruptedException {
+        if (process.waitFor(BUILD_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+            return true;
+        }
+        process.destroyForcibly().waitFor();
+        return false;
+    }
+
+    /**
+     * Returns the JVM arguments with which to launch TLC child processes.
+     *
+     * @return the JVM arguments for using the archive, or an empty list if the archive is not available
+     */
+    List<String> getJvmArgs() {
+        if (!available) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList("-XX:SharedArchiveFile=" + archiveFile.getAbsolutePath(), "-Xshare:auto");
+    }
+}
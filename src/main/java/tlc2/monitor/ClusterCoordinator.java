@@ -0,0 +1,301 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tlc2.monitor;
+
+import tlc2.monitor.util.ConsoleLogger;
+import tlc2.monitor.util.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Coordinates the assignment of a source's partitions to the members of a monitor cluster.
+ * <p>
+ * Members coordinate through a directory shared by every member, so a cluster needs no service other than a
+ * shared file system, and can be run as several local processes sharing a directory. Each member periodically
+ * writes a heartbeat to {@code members/<member>} in the cluster directory, and a member is live while its
+ * heartbeat is younger than the session timeout. Members that leave cleanly remove their heartbeat, so the
+ * remaining members rebalance immediately; members that fail are removed once their heartbeat expires.
+ * <p>
+ * Partitions are assigned round-robin to the live members in member order, so every member computes the same
+ * assignment from the same view of the cluster. Because views may briefly differ while members join or leave, a
+ * member must also hold a partition's lease, {@code leases/<partition>}, before checking the partition. Leases
+ * are written to a temporary file and hard-linked into place, so they're created atomically with their owner, and
+ * are held until the member releases the partition or stops heartbeating. A stale lease is broken by renaming it
+ * to a tombstone private to the breaking member, so when several members break the same lease only one of them
+ * removes it, and a member that finds a fresh lease in its tombstone puts it back.
+ */
+final class ClusterCoordinator implements AutoCloseable {
+    private static final Logger LOGGER = new ConsoleLogger();
+    private static final String MEMBERS_DIR = "members";
+    private static final String LEASES_DIR = "leases";
+    private static final String TOMBSTONE_SUFFIX = ".broken";
+    static final long HEARTBEAT_INTERVAL = 2000;
+    static final long SESSION_TIMEOUT = 10000;
+
+    private final String member;
+    private final File membersDir;
+    private final File leasesDir;
+    private final Set<Integer> leases = new HashSet<>();
+    private List<String> members = Collections.emptyList();
+
+    ClusterCoordinator(File dir, String member) throws IOException {
+        this.member = member;
+        this.membersDir = new File(dir, MEMBERS_DIR);
+        this.leasesDir = new File(dir, LEASES_DIR);
+        for (File d : new File[]{membersDir, leasesDir}) {
+            if (!d.exists() && !d.mkdirs()) {
+                throw new IOException("Failed to create cluster directory " + d);
+            }
+        }
+    }
+
+    /**
+     * Returns the identifier of the local member.
+     *
+     * @return the member identifier
+     */
+    String getMember() {
+        return member;
+    }
+
+    /**
+     * Writes the local member's heartbeat and reads the live members of the cluster.
+     *
+     * @return whether the set of live members changed since the last heartbeat
+     */
+    synchronized boolean heartbeat() throws IOException {
+        long now = System.currentTimeMillis();
+        write(new File(membersDir, member), String.valueOf(now));
+
+        List<String> live = new ArrayList<>();
+        String[] names = membersDir.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(".tmp")) {
+                    continue;
+                }
+                if (name.equals(member) || isLive(name, now)) {
+                    live.add(name);
+                }
+            }
+        }
+        Collections.sort(live);
+        if (live.equals(members)) {
+            return false;
+        }
+        LOGGER.log("Cluster members changed from %s to %s", members, live);
+        members = live;
+        return true;
+    }
+
+    /**
+     * Returns the partitions assigned to the local member.
+     *
+     * @param partitions the identifiers of all the source's partitions
+     * @return the identifiers of the partitions assigned to the local member
+     */
+    synchronized Set<Integer> getAssignment(Collection<Integer> partitions) {
+        List<Integer> sorted = new ArrayList<>(partitions);
+        Collections.sort(sorted);
+        int index = members.indexOf(member);
+        Set<Integer> assigned = new HashSet<>();
+        if (index < 0) {
+            return assigned;
+        }
+        for (int i = index; i < sorted.size(); i += members.size()) {
+            assigned.add(sorted.get(i));
+        }
+        return assigned;
+    }
+
+    /**
+     * Attempts to acquire the lease for the given partition.
+     * <p>
+     * A lease held by a member that is no longer live is broken, as is an empty lease older than the session
+     * timeout. The lease is only reported as acquired once it has been confirmed after linking it into place.
+     *
+     * @param partition the partition identifier
+     * @return whether the local member holds the lease
+     */
+    synchronized boolean acquire(int partition) throws IOException {
+        File lease = new File(leasesDir, String.valueOf(partition));
+        String owner = read(lease);
+        if (owner != null && owner.isEmpty()) {
+            // Leases are linked into place complete, so an empty lease was left by an interrupted write.
+            if (System.currentTimeMillis() - lease.lastModified() < SESSION_TIMEOUT) {
+                return false;
+            }
+            LOGGER.log("Breaking empty lease for partition %d", partition);
+            if (!breakLease(lease, owner)) {
+                return false;
+            }
+        } else if (owner != null && !owner.equals(member)) {
+            if (isLive(owner, System.currentTimeMillis())) {
+                return false;
+            }
+            LOGGER.log("Breaking lease for partition %d held by %s", partition, owner);
+            if (!breakLease(lease, owner)) {
+                return false;
+            }
+        }
+        if (owner == null || !owner.equals(member)) {
+            // Write the lease to a file private to the member, and link it into place so the lease is never
+            // visible without its owner. Linking fails if another member created the lease first.
+            File tempFile = new File(leasesDir, String.format("%d.%s.tmp", partition, member));
+            Files.write(tempFile.toPath(), member.getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.createLink(lease.toPath(), tempFile.toPath());
+            } catch (FileAlreadyExistsException e) {
+                return false;
+            } finally {
+                Files.deleteIfExists(tempFile.toPath());
+            }
+
+            // A member that read the stale lease before it was broken may have moved the new lease aside.
+            if (!holds(partition)) {
+                return false;
+            }
+        }
+        leases.add(partition);
+        return true;
+    }
+
+    /**
+     * Breaks the given stale lease.
+     * <p>
+     * The lease is atomically renamed to a tombstone private to the local member, so only one of the members
+     * breaking a lease can remove it. If another member has broken the lease and acquired the partition since the
+     * stale lease was read, the tombstone holds the new lease, which is linked back into place.
+     *
+     * @param lease the lease file
+     * @param owner the owner read from the stale lease
+     * @return whether the stale lease was removed
+     */
+    private boolean breakLease(File lease, String owner) throws IOException {
+        File tombstone = new File(leasesDir, lease.getName() + "." + member + TOMBSTONE_SUFFIX);
+        try {
+            Files.move(lease.toPath(), tombstone.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            // Another member removed the lease first.
+            return true;
+        }
+        try {
+            if (owner.equals(read(tombstone))) {
+                return true;
+            }
+            try {
+                Files.createLink(lease.toPath(), tombstone.toPath());
+            } catch (FileAlreadyExistsException e) {
+                // The restored lease has already been replaced, and its owner will find that it no longer holds it.
+            }
+            return false;
+        } finally {
+            Files.deleteIfExists(tombstone.toPath());
+        }
+    }
+
+    /**
+     * Returns whether the local member still holds the lease for the given partition.
+     *
+     * @param partition the partition identifier
+     * @return whether the lease is held by the local member
+     */
+    synchronized boolean holds(int partition) throws IOException {
+        return member.equals(read(new File(leasesDir, String.valueOf(partition))));
+    }
+
+    /**
+     * Releases the lease for the given partition if it is held by the local member.
+     *
+     * @param partition the partition identifier
+     */
+    synchronized void release(int partition) throws IOException {
+        leases.remove(partition);
+        File lease = new File(leasesDir, String.valueOf(partition));
+        if (member.equals(read(lease))) {
+            Files.deleteIfExists(lease.toPath());
+        }
+    }
+
+    /**
+     * Releases the local member's leases and leaves the cluster.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (int partition : new ArrayList<>(leases)) {
+            release(partition);
+        }
+        Files.deleteIfExists(new File(membersDir, member).toPath());
+        LOGGER.log("Member %s left the cluster", member);
+    }
+
+    /**
+     * Returns whether the given member's heartbeat has not expired.
+     *
+     * @param name the member identifier
+     * @param now  the current time in milliseconds
+     * @return whether the member is live
+     */
+    private boolean isLive(String name, long now) throws IOException {
+        String heartbeat = read(new File(membersDir, name));
+        if (heartbeat == null) {
+            return false;
+        }
+        try {
+            return now - Long.parseLong(heartbeat.trim()) < SESSION_TIMEOUT;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads the contents of the given file.
+     *
+     * @param file the file to read
+     * @return the contents of the file, or {@code null} if the file does not exist
+     */
+    private static String read(File file) throws IOException {
+        try {
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the given contents to a temporary file, and atomically moves it into place.
+     *
+     * @param file     the file to write
+     * @param contents the contents to write
+     */
+    private static void write(File file, String contents) throws IOException {
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        Files.write(tempFile.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -22,6 +22,8 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.regex.Pattern;
 
 /**
  * Model writer.
@@ -44,4 +46,17 @@ final class ModelWriter extends AbstractSpecWriter {
             }
         }
     }
+
+    /**
+     * Copies the given configuration file to the model buffer, omitting the given initial predicate so that it
+     * can be replaced.
+     *
+     * @param configFile the configuration file to copy
+     * @param init       the name of the initial predicate to omit
+     */
+    void copyConfig(File configFile, String init) throws IOException {
+        String config = new String(Files.readAllBytes(configFile.toPath()));
+        config = config.replaceAll("\\bINIT\\s+" + Pattern.quote(init) + "\\b", "");
+        cfgBuffer.append(config).append(TLAConstants.CR);
+    }
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tlc2.monitor;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the threads on which the monitor runs long-lived tasks.
+ * <p>
+ * The monitor targets Java 8, so virtual threads are created reflectively where the runtime supports them.
+ * Otherwise, daemon platform threads are used.
+ */
+final class MonitorThreads {
+    private MonitorThreads() {
+    }
+
+    /**
+     * Returns a factory for threads with the given name prefix.
+     *
+     * @param name the thread name prefix
+     * @return a factory creating virtual threads if supported by the runtime, otherwise daemon platform threads
+     */
+    static ThreadFactory newThreadFactory(String name) {
+        ThreadFactory factory = newVirtualThreadFactory(name);
+        if (factory != null) {
+            return factory;
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, String.format("%s-%d", name, counter.getAndIncrement()));
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Returns a factory for virtual threads with the given name prefix.
+     *
+     * @param name the thread name prefix
+     * @return the virtual thread factory, or {@code null} if the runtime does not support virtual threads
+     */
+    private static ThreadFactory newVirtualThreadFactory(String name) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tlc2.monitor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Pumps the output of TLC child processes.
+ * <p>
+ * Output is read in bulk through a large buffer and handed off a line at a time, so lines from concurrent TLC
+ * processes are never interleaved. Reads block rather than polling the stream. Each pump holds a thread until its
+ * process exits, and a child whose output is not read blocks once the pipe fills, so a pump must never wait for a
+ * thread: pumps run on a pool of daemon threads that grows whenever every thread is busy. Threads are reused across
+ * windows, and exit after they have been idle for a while, so long-lived processes such as streams and pooled
+ * workers keep their threads without starving the pumps of short-lived processes.
+ */
+final class OutputPump {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final AtomicInteger THREAD_ID = new AtomicInteger();
+    private static final long IDLE_TIMEOUT = 60;
+    private static final Executor EXECUTOR = new ThreadPoolExecutor(
+        0, Integer.MAX_VALUE, IDLE_TIMEOUT, TimeUnit.SECONDS, new SynchronousQueue<>(),
+        runnable -> {
+            Thread thread = new Thread(runnable, "tlc-output-pump-" + THREAD_ID.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    private OutputPump() {
+    }
+
+    /**
+     * Starts pumping lines from the given stream.
+     *
+     * @param inputStream the stream from which to read
+     * @param lines       the consumer to which to hand each line
+     * @return a future to be completed once the end of the stream has been reached
+     */
+    static CompletableFuture<Void> start(InputStream inputStream, Consumer<String> lines) {
+        return CompletableFuture.runAsync(() -> {
+            try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(inputStream, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.accept(line);
+                }
+            } catch (IOException e) {
+                // The stream is closed when the process is destroyed.
+            }
+        }, EXECUTOR);
+    }
+}
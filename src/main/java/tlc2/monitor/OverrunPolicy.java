@@ -0,0 +1,36 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tlc2.monitor;
+
+/**
+ * Policy applied when a partition's window queue is full.
+ */
+enum OverrunPolicy {
+    /**
+     * Blocks the partition monitor until a queued window has been started.
+     */
+    WAIT,
+
+    /**
+     * Merges the new window into the most recently queued window.
+     */
+    COALESCE,
+
+    /**
+     * Drops the new window and reports it as skipped.
+     */
+    SKIP,
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tlc2.monitor;
+
+import tlc2.monitor.source.Partition;
+import tlc2.monitor.source.Record;
+import tlc2.monitor.util.ConsoleLogger;
+import tlc2.monitor.util.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Durable checkpoint of the windows checked in a partition.
+ * <p>
+ * Windows are registered in order as they're created and marked complete as they're checked, possibly out of
+ * order. The checkpoint advances past the highest window for which every earlier window has also been checked, and
+ * is written atomically after each advance so the partition monitor can resume from it after a restart. The resume
+ * point is recorded both as a record offset and as a timestamp so that it can be used with either window type.
+ */
+final class PartitionCheckpoint {
+    private static final Logger LOGGER = new ConsoleLogger();
+    private static final String OFFSET_KEY = "offset";
+    private static final String TIMESTAMP_KEY = "timestamp";
+
+    private final Partition partition;
+    private final File file;
+    private final TreeMap<Long, Pending> pending = new TreeMap<>();
+    private long offset;
+    private long timestamp;
+    private boolean closed;
+
+    private PartitionCheckpoint(Partition partition, File file, long offset, long timestamp) {
+        this.partition = partition;
+        this.file = file;
+        this.offset = offset;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Loads the checkpoint for the given partition.
+     *
+     * @param partition the partition
+     * @param file      the checkpoint file
+     * @return the checkpoint, which is empty if the file does not exist
+     */
+    static PartitionCheckpoint load(Partition partition, File file) throws IOException {
+        if (!file.exists()) {
+            return new PartitionCheckpoint(partition, file, 0, 0);
+        }
+        Properties properties = new Properties();
+        try (InputStream input = new FileInputStream(file)) {
+            properties.load(input);
+        }
+        long offset = Long.parseLong(properties.getProperty(OFFSET_KEY, "0"));
+        long timestamp = Long.parseLong(properties.getProperty(TIMESTAMP_KEY, "0"));
+        LOGGER.log("Loaded checkpoint for %s at offset %d, timestamp %d", partition, offset, timestamp);
+        return new PartitionCheckpoint(partition, file, offset, timestamp);
+    }
+
+    /**
+     * Returns whether a checkpoint has been recorded.
+     *
+     * @return whether the partition has a checkpoint from which to resume
+     */
+    boolean exists() {
+        return file.exists();
+    }
+
+    /**
+     * Returns the offset of the first record that has not been fully checked.
+     *
+     * @return the offset from which to resume count-based windows
+     */
+    synchronized long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the start time of the first window that has not been checked.
+     *
+     * @return the time in milliseconds from which to resume time windows
+     */
+    synchronized long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Registers a window to be checked.
+     * <p>
+     * Windows must be registered in order.
+     *
+     * @param window the window
+     * @param next   the start of the window following the given window
+     */
+    synchronized void begin(Window window, long next) {
+        pending.put(window.getStart(), new Pending(window, next));
+    }
+
+    /**
+     * Marks a window as checked, and writes the checkpoint if it has advanced.
+     * <p>
+     * Every registered window spanned by the given window is marked as checked, so windows merged by the
+     * scheduler complete all the windows they were merged from.
+     *
+     * @param window the checked window
+     */
+    synchronized void complete(Window window) throws IOException {
+        if (closed) {
+            return;
+        }
+        for (Pending p : pending.subMap(window.getStart(), true, window.getEnd(), false).values()) {
+            if (p.window.getEnd() <= window.getEnd()) {
+                p.complete = true;
+            }
+        }
+
+        Pending last = null;
+        Iterator<Map.Entry<Long, Pending>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Pending p = iterator.next().getValue();
+            if (!p.complete) {
+                break;
+            }
+            iterator.remove();
+            last = p;
+        }
+        if (last != null) {
+            advance(last.window.getType(), last.next);
+        }
+    }
+
+    /**
+     * Advances the checkpoint to the given offset if it is past the current offset.
+     * <p>
+     * Streams are not split into windows, so the stream records the offset it has reached directly.
+     *
+     * @param offset the offset of the first record that has not been fully checked
+     */
+    synchronized void advanceTo(long offset) throws IOException {
+        if (closed || offset <= this.offset) {
+            return;
+        }
+        advance(Window.Type.INDEX, offset);
+    }
+
+    /**
+     * Stops recording windows.
+     * <p>
+     * Windows still being checked when the partition monitor stops, e.g. because the partition was assigned to
+     * another member of the cluster, must not overwrite the checkpoint written by the partition's new owner.
+     */
+    synchronized void close() {
+        closed = true;
+        pending.clear();
+    }
+
+    /**
+     * Advances the checkpoint to the given window start and writes it to disk.
+     *
+     * @param type     the window type
+     * @param position the start time or start index of the first window that has not been checked
+     */
+    private void advance(Window.Type type, long position) throws IOException {
+        if (type == Window.Type.INDEX) {
+            offset = position;
+
+            // The next window usually starts after the head of the partition, and reading a record that has not
+            // arrived blocks, so fall back to the last record. Its timestamp is no later than the next record's,
+            // so time windows resume at or before the first unchecked record.
+            Record record = partition.get(Math.min(position, partition.indexOf(Long.MAX_VALUE)));
+            if (record != null) {
+                timestamp = record.timestamp();
+            }
+        } else {
+            timestamp = position;
+            offset = partition.indexOf(position);
+        }
+        write();
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file, and atomically moves it into place.
+     */
+    private void write() throws IOException {
+        File dir = file.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create checkpoint directory " + dir);
+        }
+        Properties properties = new Properties();
+        properties.setProperty(OFFSET_KEY, String.valueOf(offset));
+        properties.setProperty(TIMESTAMP_KEY, String.valueOf(timestamp));
+        File tempFile = new File(dir, file.getName() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(tempFile)) {
+            properties.store(output, partition.toString());
+            output.getFD().sync();
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Window awaiting completion.
+     */
+    private static final class Pending {
+        private final Window window;
+        private final long next;
+        private boolean complete;
+
+        private Pending(Window window, long next) {
+            this.window = window;
+            this.next = next;
+        }
+    }
+}
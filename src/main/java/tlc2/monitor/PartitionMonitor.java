@@ -21,12 +21,24 @@ import tlc2.monitor.source.Record;
 import tlc2.monitor.source.Source;
 import tlc2.monitor.util.ConsoleLogger;
 import tlc2.monitor.util.Logger;
+import tlc2.output.EC;
 import tlc2.overrides.Alerts;
 import tlc2.overrides.Traces;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Monitors a partition and evaluates an infinite stream of traces using TLC.
@@ -37,17 +49,73 @@ import java.util.*;
 final class PartitionMonitor {
     private static final Logger LOGGER = new ConsoleLogger();
     private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("MM-dd-yyyy hh:mm:ss.SSS");
+    private static final long STREAM_RESTART_DELAY = 1000;
+    private static final int MAX_WINDOW_ATTEMPTS = 3;
+    private static final long WINDOW_RETRY_DELAY = 1000;
+    private static final String STREAM_PROGRESS_FILE = "stream.progress";
+    private static final long POLL_INTERVAL = 1000;
+    private static final String CHECKPOINT_DIR = "checkpoints";
+    private static final String CARRY_DIR = "carry";
 
     private final Partition partition;
     private final Source source;
     private final Sink sink;
     private final TLCMonitorConfig config;
+    private final TLCWorkerPool pool;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+    private final ClassDataArchive archive;
+    private final ResourceSizer sizer;
+    private PartitionCheckpoint checkpoint;
+    private StateCarrier carrier;
+    private final TreeMap<Long, Long> checkedRanges = new TreeMap<>();
+    private final AtomicLong skippedWindows = new AtomicLong();
+    private long headTimestamp = Long.MIN_VALUE;
+    private long headUpdateTime = System.currentTimeMillis();
 
-    PartitionMonitor(Partition partition, Source source, Sink sink, TLCMonitorConfig config) {
+    PartitionMonitor(
+        Partition partition,
+        Source source,
+        Sink sink,
+        TLCMonitorConfig config,
+        TLCWorkerPool pool,
+        Semaphore permits,
+        ExecutorService executor,
+        ClassDataArchive archive,
+        ResourceSizer sizer) {
         this.partition = partition;
         this.source = source;
         this.sink = sink;
         this.config = config;
+        this.pool = pool;
+        this.permits = permits;
+        this.executor = executor;
+        this.archive = archive;
+        this.sizer = sizer;
+    }
+
+    /**
+     * Formats the given time for logging.
+     *
+     * @param time the time in milliseconds
+     * @return the formatted time
+     */
+    private static String formatTime(long time) {
+        synchronized (DATE_FORMAT) {
+            return DATE_FORMAT.format(new Date(time));
+        }
+    }
+
+    /**
+     * Returns the environment setting the classpath for TLC child processes.
+     *
+     * @param config the monitor configuration
+     * @return the classpath environment
+     */
+    static Map<String, String> getClasspathEnv(TLCMonitorConfig config) {
+        Map<String, String> env = new HashMap<>();
+        env.put("CLASSPATH", String.format("%s:%s", System.getProperty("java.class.path"), config.getModuleDir().getAbsolutePath()));
+        return env;
     }
 
     /**
@@ -56,84 +124,555 @@ final class PartitionMonitor {
      * The partition monitor uses trace timestamps to evaluate batches of traces within a sliding time window.
      * The monitor begins evaluating traces starting at the first time available in the partitino stream.
      * For each window, the monitor will create a separate TLC process to consume and evaluate the traces.
+     * Windows are queued on a {@link WindowScheduler} which bounds the number of windows checked concurrently.
+     * Time windows are scheduled once the partition's event-time watermark has passed the end of the window.
+     * If count-based windows are configured, windows are instead bounded by record indexes and are scheduled
+     * once all the records in the window have been appended to the partition.
+     * If streaming is enabled, the partition is instead checked by a single long-lived TLC process.
+     * <p>
+     * Checked windows are recorded in a durable checkpoint under the metadir, and the monitor resumes from the
+     * checkpoint when restarted.
      */
     public void run() throws Exception {
         LOGGER.log("Starting monitor for %s", partition);
-        long time = replayPartition(partition);
-        for (; ; ) {
-            final long windowStartTime = time;
-            final long windowEndTime = time + config.getWindow();
-            new Thread(() -> {
-                try {
-                    runWindow(partition, windowStartTime, windowEndTime);
-                } catch (Exception e) {
-                    e.printStackTrace();
+        if (config.isStreaming()) {
+            stream();
+            return;
+        }
+
+        checkpoint = PartitionCheckpoint.load(partition, getCheckpointFile());
+        if (config.isCarryingStates()) {
+            File carryDir = new File(config.getStateDir(), CARRY_DIR);
+            carrier = new StateCarrier(partition, new File(carryDir, String.valueOf(partition.id())));
+        }
+        WindowScheduler scheduler = new WindowScheduler(
+            partition.toString(),
+            config.getPartitionWindows(),
+            config.getWindowQueue(),
+            config.getOverrunPolicy(),
+            permits,
+            executor,
+            this::checkWindow);
+        try {
+            long position = replayPartition(scheduler);
+            for (; ; ) {
+                long head = getHead();
+                while (isComplete(position, head)) {
+                    Window window = newWindow(position);
+                    position += config.isCountBased() ? config.getStrideRecords() : config.getStride();
+                    checkpoint.begin(window, position);
+                    // Skipped windows are reported rather than retried, so they must not hold back the checkpoint.
+                    if (!scheduler.submit(window)) {
+                        checkpoint.complete(window);
+                    }
                 }
-            }).start();
-            time += config.getWindow() / 2;
-            Thread.sleep(config.getWindow() / 2);
+                Thread.sleep(Math.min(POLL_INTERVAL, config.getStride()));
+            }
+        } finally {
+            scheduler.close();
+            checkpoint.close();
+        }
+    }
+
+    /**
+     * Returns the head of the partition.
+     * <p>
+     * For count-based windows, the head is the index of the last record in the partition. For time windows,
+     * the head is the event-time watermark: the timestamp of the newest record in the partition less the
+     * allowed lateness. If no records have been appended to the partition for a full window length, the
+     * watermark is advanced by the wall clock so that windows in idle partitions are still checked. No
+     * watermark is returned until a record has been seen in the partition.
+     *
+     * @return the index of the last record or the event-time watermark, or {@link Long#MIN_VALUE} if no record
+     * has been seen, depending on the window type
+     */
+    private long getHead() throws IOException {
+        long lastOffset = partition.indexOf(Long.MAX_VALUE);
+        if (config.isCountBased()) {
+            return lastOffset;
         }
+
+        long now = System.currentTimeMillis();
+        if (lastOffset != 0) {
+            long timestamp = partition.get(lastOffset).timestamp();
+            if (timestamp > headTimestamp) {
+                headTimestamp = timestamp;
+                headUpdateTime = now;
+            }
+        }
+
+        if (headTimestamp == Long.MIN_VALUE) {
+            return Long.MIN_VALUE;
+        }
+
+        long watermark = headTimestamp - config.getLateness();
+        if (now - headUpdateTime >= config.getWindow()) {
+            watermark = Math.max(watermark, now - config.getLateness());
+        }
+        return watermark;
+    }
+
+    /**
+     * Returns a new window starting at the given position.
+     *
+     * @param position the window start time or start index
+     * @return the window starting at the given position
+     */
+    private Window newWindow(long position) {
+        if (config.isCountBased()) {
+            return new Window(Window.Type.INDEX, position, position + config.getWindowRecords());
+        }
+        return new Window(Window.Type.TIME, position, position + config.getWindow());
+    }
+
+    /**
+     * Returns whether the window starting at the given position can be checked given the head of the partition.
+     * <p>
+     * Count-based windows can be checked once every record in the window has been appended to the partition.
+     * Time windows can be checked once the event-time watermark has passed the end of the window.
+     *
+     * @param position the window start time or start index
+     * @param head     the head of the partition as returned by {@link #getHead()}
+     * @return whether the window starting at the given position is complete
+     */
+    private boolean isComplete(long position, long head) {
+        if (config.isCountBased()) {
+            return position + config.getWindowRecords() - 1 <= head;
+        }
+        return position + config.getWindow() <= head;
     }
 
     /**
      * Runs TLC processes to check existing offsets in the given partition.
+     * <p>
+     * Historical windows are checked concurrently up to the configured replay parallelism, and verdicts are
+     * reported in window order. Once the windows up to the head of the partition have been checked, the head
+     * is read again, and replay continues until the monitor has caught up with the partition and can hand off
+     * to live monitoring.
+     * <p>
+     * If the partition has a checkpoint, replay resumes from the checkpoint rather than from the first retained
+     * record.
      *
-     * @param partition the partition from which to consume traces
-     * @return the time (in milliseconds) up to which traces were checked
+     * @param scheduler the scheduler with which to run windows
+     * @return the time (in milliseconds) or index up to which traces were checked
      */
-    private long replayPartition(Partition partition) throws Exception {
+    private long replayPartition(WindowScheduler scheduler) throws Exception {
         long firstOffset = partition.indexOf(0);
-        long time = System.currentTimeMillis();
+        long position = config.isCountBased() ? 1 : System.currentTimeMillis();
+        if (checkpoint.exists()) {
+            position = config.isCountBased() ? checkpoint.getOffset() : checkpoint.getTimestamp();
+        }
         if (firstOffset != 0) {
-            Record firstRecord = partition.get(firstOffset);
-            long startTime = firstRecord.timestamp();
-            long lastOffset = partition.indexOf(Long.MAX_VALUE);
-            Record lastRecord = partition.get(lastOffset);
-            LOGGER.log("Checking existing offsets in %s from offset %d to offset %d", partition, firstOffset, lastOffset);
-            long endTime = lastRecord.timestamp();
-            time = startTime;
-            while (time < endTime) {
-                long windowStartTime = time;
-                long windowEndTime = time + config.getWindow();
-                runWindow(partition, windowStartTime, windowEndTime);
-                time += config.getWindow() / 2;
+            long firstPosition = config.isCountBased() ? firstOffset : partition.get(firstOffset).timestamp();
+            position = checkpoint.exists() ? Math.max(position, firstPosition) : firstPosition;
+            LOGGER.log("Replaying %s from %s", partition,
+                config.isCountBased() ? String.format("record %d", position) : formatTime(position));
+            // Replayed windows run on the executor shared by all partitions, up to the replay parallelism at a time.
+            Semaphore replays = new Semaphore(config.getReplayParallelism());
+            List<Future<Integer>> verdicts = new ArrayList<>();
+            try {
+                for (; ; ) {
+                    long head = getHead();
+                    if (!isComplete(position, head)) {
+                        break;
+                    }
+
+                    LOGGER.log("Checking existing offsets in %s with parallelism %d",
+                        partition, config.getReplayParallelism());
+                    List<Window> windows = new ArrayList<>();
+                    verdicts.clear();
+                    while (isComplete(position, head)) {
+                        Window window = newWindow(position);
+                        position += config.isCountBased() ? config.getStrideRecords() : config.getStride();
+                        checkpoint.begin(window, position);
+                        windows.add(window);
+                        replays.acquire();
+                        verdicts.add(executor.submit(() -> {
+                            try {
+                                return scheduler.run(window);
+                            } finally {
+                                replays.release();
+                            }
+                        }));
+                    }
+
+                    // Report verdicts in window order as windows complete.
+                    for (int i = 0; i < windows.size(); i++) {
+                        Window window = windows.get(i);
+                        try {
+                            int exitCode = verdicts.get(i).get();
+                            LOGGER.log("Replayed %s %s with exit code %d", partition, describe(window), exitCode);
+                        } catch (ExecutionException e) {
+                            LOGGER.log("Failed to replay %s %s", partition, describe(window));
+                            e.getCause().printStackTrace();
+                        }
+                    }
+                }
+            } finally {
+                verdicts.forEach(verdict -> verdict.cancel(true));
+            }
+            LOGGER.log("Caught up with the head of %s; starting live monitoring", partition);
+        }
+        return position;
+    }
+
+    /**
+     * Describes the given window for logging.
+     *
+     * @param window the window to describe
+     * @return the window description
+     */
+    private static String describe(Window window) {
+        if (window.getType() == Window.Type.INDEX) {
+            return String.format("records %d to %d", window.getStart(), window.getEnd() - 1);
+        }
+        return String.format("time window %s to %s", formatTime(window.getStart()), formatTime(window.getEnd()));
+    }
+
+    /**
+     * Checks the given window and records it in the partition's checkpoint.
+     * <p>
+     * Windows whose records have all been checked by previously checked windows are skipped without running TLC.
+     * Only windows that TLC fully explored, with or without finding violations, count as checked. Windows that fail
+     * to run or that TLC fails to explore are retried a bounded number of times, and are then recorded as failed so
+     * the checkpoint can move past them.
+     *
+     * @param window the window to check
+     * @return the TLC exit code
+     */
+    private int checkWindow(Window window) throws Exception {
+        long[] range = getRecordRange(window);
+        if (range == null || isChecked(range[0], range[1])) {
+            LOGGER.log("Skipping %s %s with no new records (%d skipped)",
+                partition, describe(window), skippedWindows.incrementAndGet());
+            if (carrier != null) {
+                carrier.skip(window);
+            }
+            checkpoint.complete(window);
+            return EC.ExitStatus.SUCCESS;
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            int exitCode;
+            try {
+                exitCode = runWindow(window, range[1] - range[0] + 1);
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                LOGGER.log("Failed to run TLC for %s %s: %s", partition, describe(window), e);
+                exitCode = EC.ExitStatus.ERROR_SYSTEM;
+            }
+
+            // TLC exit codes below FAILURE_SPEC_EVAL indicate the window was fully explored, even if it found violations.
+            if (exitCode < EC.ExitStatus.FAILURE_SPEC_EVAL) {
+                markChecked(range[0], range[1]);
+                checkpoint.complete(window);
+                return exitCode;
+            }
+            if (attempt >= MAX_WINDOW_ATTEMPTS) {
+                LOGGER.log("Failed to check %s %s after %d attempts with exit code %d; moving past it",
+                    partition, describe(window), attempt, exitCode);
+                checkpoint.complete(window);
+                return exitCode;
+            }
+            LOGGER.log("Failed to check %s %s with exit code %d; retrying", partition, describe(window), exitCode);
+            Thread.sleep(WINDOW_RETRY_DELAY * attempt);
+        }
+    }
+
+    /**
+     * Returns whether every record in the given range has been checked by a previous window.
+     *
+     * @param first the index of the first record in the range
+     * @param last  the index of the last record in the range
+     * @return whether the range is covered by the ranges of checked windows
+     */
+    private synchronized boolean isChecked(long first, long last) {
+        Map.Entry<Long, Long> entry = checkedRanges.floorEntry(first);
+        return entry != null && entry.getValue() >= last;
+    }
+
+    /**
+     * Records the given range of records as checked, merging it with overlapping and adjacent checked ranges.
+     *
+     * @param first the index of the first record in the range
+     * @param last  the index of the last record in the range
+     */
+    private synchronized void markChecked(long first, long last) {
+        Map.Entry<Long, Long> entry = checkedRanges.floorEntry(first);
+        if (entry != null && entry.getValue() >= first - 1) {
+            first = entry.getKey();
+            last = Math.max(last, entry.getValue());
+        }
+        Map.Entry<Long, Long> next = checkedRanges.higherEntry(first);
+        while (next != null && next.getKey() <= last + 1) {
+            last = Math.max(last, next.getValue());
+            checkedRanges.remove(next.getKey());
+            next = checkedRanges.higherEntry(first);
+        }
+        checkedRanges.put(first, last);
+    }
+
+    /**
+     * Returns the file in which the partition's checkpoint is stored.
+     *
+     * @return the checkpoint file
+     */
+    private File getCheckpointFile() {
+        return new File(new File(config.getStateDir(), CHECKPOINT_DIR), String.format("%d.properties", partition.id()));
+    }
+
+    /**
+     * Runs TLC to evaluate traces within the given window.
+     * <p>
+     * If a worker pool is configured, the window is checked by a warm TLC worker. Otherwise, a new TLC process
+     * is forked for the window.
+     *
+     * @param window  the window to check
+     * @param records the number of records in the window
+     * @return the TLC exit code
+     */
+    private int runWindow(Window window, long records) throws Exception {
+        LOGGER.log("Checking traces in %s spanning %s", partition, describe(window));
+
+        Map<String, String> env = getEnv();
+        if (window.getType() == Window.Type.INDEX) {
+            env.put(Traces.WINDOW_START_INDEX_ENV, String.valueOf(window.getStart()));
+            env.put(Traces.WINDOW_END_INDEX_ENV, String.valueOf(window.getEnd()));
+        } else {
+            env.put(Traces.WINDOW_START_ENV, String.valueOf(window.getStart()));
+            env.put(Traces.WINDOW_END_ENV, String.valueOf(window.getEnd()));
+        }
+        long chainBase = carrier != null ? carrier.prepare(window, env) : 0;
+
+        // TLC names its run directory after the current second, so concurrent windows need their own metadirs.
+        File metaDir = new File(getMetaDir(), String.valueOf(window.getStart()));
+        int exitCode;
+        try {
+            if (pool != null) {
+                WindowResources resources = sizer.size(records, sizer.sizeWorker());
+                LOGGER.log("Submitting window of %d records to TLC worker pool with %s", records, resources);
+                exitCode = pool.run(getArgs(resources, metaDir), env);
+            } else {
+                WindowResources resources = sizer.size(records);
+                LOGGER.log("Starting TLC process for window of %d records with %s", records, resources);
+                TLCRunner runner = new TLCRunner();
+                runner.start(getJvmArgs(resources), getArgs(resources, metaDir), env);
+                exitCode = runner.join();
             }
+        } finally {
+            deleteDirectory(metaDir);
+        }
+
+        if (carrier != null) {
+            carrier.commit(window, chainBase, exitCode);
+        }
+        return exitCode;
+    }
+
+    /**
+     * Returns the range of indexes of the records in the given window.
+     *
+     * @param window the window
+     * @return the first and last index of the records in the window, or {@code null} if the window is empty
+     */
+    private long[] getRecordRange(Window window) throws IOException {
+        if (window.getType() == Window.Type.INDEX) {
+            return new long[]{window.getStart(), window.getEnd() - 1};
+        }
+
+        // indexOf returns the first record at or after the given time, or the last record if there is none.
+        long first = partition.indexOf(window.getStart());
+        Record firstRecord = first != 0 ? partition.get(first) : null;
+        if (firstRecord == null
+            || firstRecord.timestamp() < window.getStart()
+            || firstRecord.timestamp() >= window.getEnd()) {
+            return null;
         }
-        return time;
+        long last = partition.indexOf(window.getEnd());
+        Record lastRecord = partition.get(last);
+        if (lastRecord == null || lastRecord.timestamp() >= window.getEnd()) {
+            last--;
+        }
+        return new long[]{first, last};
     }
 
     /**
-     * Runs a TLC process to evaluate traces within the given window.
+     * Runs a single long-lived TLC process to evaluate the partition as a stream.
+     * <p>
+     * In streaming mode, the {@code Traces} module blocks until the next record has been appended to the
+     * partition rather than bounding the run by a window end time, so each record is checked once and alerts
+     * are published as soon as violations are found. The {@code Traces} module records the highest offset the
+     * stream has reached, and if the TLC process exits the offset is saved to the checkpoint and the process is
+     * restarted from it, so records that have already been checked are not checked again.
      */
-    private void runWindow(Partition partition, long startTime, long endTime) throws Exception {
-        LOGGER.log("Checking traces in %s spanning time window %s to %s",
-            partition,
-            DATE_FORMAT.format(new Date(startTime)),
-            DATE_FORMAT.format(new Date(endTime)));
+    private void stream() throws Exception {
+        checkpoint = PartitionCheckpoint.load(partition, getCheckpointFile());
+        File progressFile = new File(getMetaDir(), STREAM_PROGRESS_FILE);
+        if (!progressFile.getParentFile().exists() && !progressFile.getParentFile().mkdirs()) {
+            throw new IOException("Failed to create metadir " + progressFile.getParentFile());
+        }
+        for (; ; ) {
+            long offset = checkpoint.exists() ? checkpoint.getOffset() : partition.indexOf(0);
+            Map<String, String> env = getEnv();
+            if (offset != 0) {
+                LOGGER.log("Streaming traces in %s starting at offset %d", partition, offset);
+                env.put(Traces.WINDOW_START_INDEX_ENV, String.valueOf(offset));
+            } else {
+                long startTime = System.currentTimeMillis();
+                LOGGER.log("Streaming traces in %s starting at %s", partition, formatTime(startTime));
+                env.put(Traces.WINDOW_START_ENV, String.valueOf(startTime));
+            }
+            env.put(Traces.STREAM_ENV, String.valueOf(true));
+            env.put(Traces.STREAM_PROGRESS_ENV, progressFile.getAbsolutePath());
+            Files.deleteIfExists(progressFile.toPath());
 
-        TLCRunner runner = new TLCRunner();
+            WindowResources resources = sizer.sizeWorker();
+            TLCRunner runner = new TLCRunner();
+            runner.start(getJvmArgs(resources), getArgs(resources, getMetaDir()), env);
+            int exitCode = runner.join();
+            long reached = readStreamProgress(progressFile);
+            if (reached != 0) {
+                checkpoint.advanceTo(reached);
+            }
+            LOGGER.log("TLC stream for %s exited with code %d at offset %d; restarting", partition, exitCode, reached);
+            Thread.sleep(STREAM_RESTART_DELAY);
+        }
+    }
+
+    /**
+     * Reads the highest offset recorded by a TLC stream.
+     *
+     * @param progressFile the file to which the stream records its progress
+     * @return the highest offset reached by the stream, or {@code 0} if no progress was recorded
+     */
+    private long readStreamProgress(File progressFile) {
+        if (!progressFile.exists()) {
+            return 0;
+        }
+        try {
+            String progress = new String(Files.readAllBytes(progressFile.toPath()), StandardCharsets.UTF_8).trim();
+            return progress.isEmpty() ? 0 : Long.parseLong(progress);
+        } catch (IOException | NumberFormatException e) {
+            LOGGER.log("Failed to read stream progress from %s: %s", progressFile, e);
+            return 0;
+        }
+    }
 
-        // Set the environment variables to configure the source and sink for the Traces and Alerts modules.
+    /**
+     * Builds the class-data sharing archive for TLC child processes from a training run over this partition.
+     * <p>
+     * The training run checks at most the first record in the partition. No sink is configured for the
+     * training run, so it cannot publish alerts.
+     *
+     * @param archive the archive to build
+     */
+    void train(ClassDataArchive archive) throws IOException, InterruptedException {
+        Map<String, String> env = getEnv();
+        env.remove(Alerts.SINK_ENV);
+        env.put(Traces.WINDOW_START_INDEX_ENV, String.valueOf(1));
+        env.put(Traces.WINDOW_END_INDEX_ENV, String.valueOf(2));
+        archive.build(getArgs(getMetaDir()), env);
+    }
+
+    /**
+     * Returns the JVM arguments with which to launch TLC child processes.
+     *
+     * @param resources the resources with which to launch the TLC process
+     * @return the TLC child JVM arguments
+     */
+    private List<String> getJvmArgs(WindowResources resources) {
+        List<String> jvmArgs = new ArrayList<>();
+        if (archive != null) {
+            jvmArgs.addAll(archive.getJvmArgs());
+        }
+        jvmArgs.addAll(resources.getJvmArgs());
+        return jvmArgs;
+    }
+
+    /**
+     * Returns the environment variables that configure the source and sink for the Traces and Alerts modules.
+     *
+     * @return the TLC environment
+     */
+    private Map<String, String> getEnv() {
         Map<String, String> env = new HashMap<>();
         env.put(Traces.SOURCE_ENV, source.uri());
         env.put(Traces.PARTITION_ENV, String.valueOf(partition.id()));
-        env.put(Traces.WINDOW_START_ENV, String.valueOf(startTime));
-        env.put(Traces.WINDOW_END_ENV, String.valueOf(endTime));
-        env.put(Alerts.SINK_ENV, sink.uri());
-        env.put("CLASSPATH", String.format("%s:%s", System.getProperty("java.class.path"), config.getModuleDir().getAbsolutePath()));
+        env.put(Traces.STATE_DIR_ENV, config.getStateDir().getAbsolutePath());
+        if (sink != null) {
+            env.put(Alerts.SINK_ENV, sink.uri());
+        }
+        if (!config.isSpecCacheEnabled()) {
+            env.put(TLCWorker.SPEC_CACHE_ENV, String.valueOf(false));
+        }
+        env.putAll(getClasspathEnv(config));
+        return env;
+    }
 
-        // Modify the TLC arguments to ensure the metadir is writable and TLC does not exit on invariant violations.
+    /**
+     * Returns the metadir for the partition's TLC processes.
+     *
+     * @return the partition metadir
+     */
+    private File getMetaDir() {
+        return new File(config.getMetaDir(), String.valueOf(partition.id()));
+    }
+
+    /**
+     * Deletes the given directory and its contents, logging rather than failing if it cannot be deleted.
+     *
+     * @param dir the directory to delete
+     */
+    private static void deleteDirectory(File dir) {
+        if (!dir.exists()) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            LOGGER.log("Failed to delete %s: %s", dir, e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the TLC arguments, modified to ensure the metadir is writable and TLC does not exit on invariant
+     * violations.
+     *
+     * @param metaDir the metadir to use unless one is set by the user
+     * @return the TLC arguments
+     */
+    private List<String> getArgs(File metaDir) {
         List<String> args = new ArrayList<>(config.getArgs());
         if (!args.contains("-metadir")) {
             args.add("-metadir");
-            args.add(new File(config.getMetaDir(), String.valueOf(partition.id())).getAbsolutePath());
+            args.add(metaDir.getAbsolutePath());
         }
         if (!args.contains("-continue")) {
             args.add("-continue");
         }
+        return args;
+    }
 
-        LOGGER.log("Starting TLC process...");
-        runner.start(args, env);
-        runner.join();
+    /**
+     * Returns the TLC arguments, with the number of workers and fingerprint set memory sized for the window unless
+     * set by the user.
+     *
+     * @param resources the resources with which to check the window
+     * @param metaDir   the metadir to use unless one is set by the user
+     * @return the TLC arguments
+     */
+    private List<String> getArgs(WindowResources resources, File metaDir) {
+        List<String> args = getArgs(metaDir);
+        List<String> sizedArgs = resources.getArgs();
+        for (int i = 0; i < sizedArgs.size(); i += 2) {
+            if (!args.contains(sizedArgs.get(i))) {
+                args.add(sizedArgs.get(i));
+                args.add(sizedArgs.get(i + 1));
+            }
+        }
+        return args;
     }
 }
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tlc2.monitor;
+
+import tlc2.monitor.util.ConsoleLogger;
+import tlc2.monitor.util.Logger;
+import tlc2.tool.fp.FPSetFactory;
+import tlc2.tool.fp.OffHeapDiskFPSet;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sizes the JVM and TLC resources used to check windows.
+ * <p>
+ * The free memory and cores of the host are measured once when the sizer is created, before any TLC processes
+ * are started, and are shared evenly by the TLC processes that may run concurrently. The shares are recomputed
+ * when the number of concurrent processes changes, e.g. when partitions are discovered. Within its share, each window
+ * is given a heap, fingerprint set and number of TLC workers proportional to the number of records it holds. Disk
+ * fingerprint sets spill to disk when a window needs more memory than its share.
+ * <p>
+ * Sizing can be overridden per source with the {@code heap} and {@code fpmem} (in megabytes), {@code fpset}, and
+ * {@code workers} query parameters of the source URI, e.g. {@code kafka://kafka:9092/traces?heap=2048&workers=2}.
+ */
+final class ResourceSizer {
+    private static final Logger LOGGER = new ConsoleLogger();
+
+    static final String HEAP_PARAM = "heap";
+    static final String FPSET_PARAM = "fpset";
+    static final String FPMEM_PARAM = "fpmem";
+    static final String WORKERS_PARAM = "workers";
+
+    private static final long MB = 1024 * 1024;
+    private static final String FPSET_PACKAGE = "tlc2.tool.fp.";
+    private static final String ON_HEAP_FPSET = FPSetFactory.getImplementationDefault();
+    private static final String OFF_HEAP_FPSET = OffHeapDiskFPSet.class.getName();
+
+    // Heap needed by TLC, the parsed spec and the source clients regardless of the window size.
+    private static final long BASE_HEAP = 128;
+    // Heap needed per record for decoded trace values and TLC's state queue.
+    private static final long BYTES_PER_RECORD = 8 * 1024;
+    // Estimated number of distinct states explored per record.
+    private static final long STATES_PER_RECORD = 8;
+    // Fingerprint set memory per state: an 8 byte fingerprint at a load factor of 0.5.
+    private static final long BYTES_PER_STATE = 16;
+    private static final long MIN_FPMEM = 16;
+    // Fingerprint sets larger than this are stored off the heap to keep them out of the garbage collector's way.
+    private static final long MAX_ON_HEAP_FPMEM = 512;
+    private static final long RECORDS_PER_WORKER = 10000;
+
+    private final long freeMemory;
+    private final int freeCores;
+    private final Map<String, String> overrides;
+    private int processes;
+    private volatile long memory;
+    private volatile int cores;
+
+    /**
+     * Creates a sizer for the given source.
+     *
+     * @param source      the source URI from which to read sizing overrides
+     * @param concurrency the maximum number of TLC processes that may run concurrently
+     */
+    // getFreePhysicalMemorySize is deprecated from Java 14 in favor of getFreeMemorySize, which Java 8 and 11 lack.
+    @SuppressWarnings("deprecation")
+    ResourceSizer(String source, int concurrency) throws URISyntaxException {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        long freeMemory = Runtime.getRuntime().maxMemory();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            freeMemory = ((com.sun.management.OperatingSystemMXBean) os).getFreePhysicalMemorySize();
+        }
+        int freeCores = os.getAvailableProcessors();
+        if (os.getSystemLoadAverage() > 0) {
+            freeCores -= (int) Math.round(os.getSystemLoadAverage());
+        }
+        this.freeMemory = freeMemory / MB;
+        this.freeCores = freeCores;
+        this.overrides = getOverrides(source);
+        setConcurrency(concurrency);
+    }
+
+    /**
+     * Shares the free memory and cores between the given number of concurrent TLC processes.
+     * <p>
+     * Processes that are already running keep the resources with which they were sized.
+     *
+     * @param concurrency the maximum number of TLC processes that may run concurrently
+     */
+    synchronized void setConcurrency(int concurrency) {
+        int processes = Math.max(concurrency, 1);
+        if (processes == this.processes) {
+            return;
+        }
+        this.processes = processes;
+        this.memory = Math.max(freeMemory / processes, BASE_HEAP + MIN_FPMEM);
+        this.cores = Math.max(freeCores / processes, 1);
+        LOGGER.log("Sizing TLC processes for %d concurrent windows with %dm of memory and %d cores each",
+            processes, memory, cores);
+    }
+
+    /**
+     * Returns the sizing overrides in the query of the given source URI.
+     *
+     * @param source the source URI
+     * @return the sizing overrides
+     */
+    private static Map<String, String> getOverrides(String source) throws URISyntaxException {
+        Map<String, String> overrides = new HashMap<>();
+        String query = new URI(source).getQuery();
+        if (query == null) {
+            return overrides;
+        }
+        for (String q : query.split("&")) {
+            String[] keyValue = q.split("=", 2);
+            switch (keyValue[0]) {
+                case HEAP_PARAM:
+                case FPSET_PARAM:
+                case FPMEM_PARAM:
+                case WORKERS_PARAM:
+                    if (keyValue.length < 2 || keyValue[1].isEmpty()) {
+                        throw new IllegalArgumentException("No value for source parameter " + keyValue[0]);
+                    }
+                    overrides.put(keyValue[0], keyValue[1]);
+                    break;
+            }
+        }
+        return overrides;
+    }
+
+    /**
+     * Sizes a TLC process that checks a single window.
+     *
+     * @param records the number of records in the window
+     * @return the resources with which to check the window
+     */
+    WindowResources size(long records) {
+        long fpMem = Math.max(records * STATES_PER_RECORD * BYTES_PER_STATE / MB, MIN_FPMEM);
+        long heap = BASE_HEAP + records * BYTES_PER_RECORD / MB;
+        String fpSet = getFPSet(fpMem > MAX_ON_HEAP_FPMEM ? OFF_HEAP_FPSET : ON_HEAP_FPSET);
+        if (FPSetFactory.allocatesOnHeap(fpSet)) {
+            heap = Math.min(heap + fpMem, memory);
+            fpMem = Math.min(fpMem, heap / 2);
+        } else {
+            heap = Math.min(heap, memory / 2);
+            fpMem = Math.min(fpMem, memory - heap);
+        }
+        return override(new WindowResources(heap, fpSet, fpMem, getWorkers(records)));
+    }
+
+    /**
+     * Sizes a long-lived TLC process that checks many windows or an unbounded stream.
+     * <p>
+     * Long-lived processes are given the process's full share of memory, and check windows with a single worker
+     * unless the number of workers is set per window.
+     *
+     * @return the resources with which to launch the TLC process
+     */
+    WindowResources sizeWorker() {
+        String fpSet = getFPSet(ON_HEAP_FPSET);
+        long heap = FPSetFactory.allocatesOnHeap(fpSet) ? memory : memory / 2;
+        long fpMem = FPSetFactory.allocatesOnHeap(fpSet) ? heap / 4 : memory - heap;
+        return override(new WindowResources(heap, fpSet, fpMem, 1));
+    }
+
+    /**
+     * Sizes a window checked by a long-lived TLC process.
+     * <p>
+     * The heap and fingerprint set implementation are fixed when the process is launched, so only the fingerprint
+     * set's share of the heap and the number of TLC workers are sized for the window.
+     *
+     * @param records the number of records in the window
+     * @param worker  the resources with which the TLC process was launched
+     * @return the resources with which to check the window
+     */
+    WindowResources size(long records, WindowResources worker) {
+        long fpMem = worker.getFPMem();
+        if (worker.isOnHeap() && !overrides.containsKey(FPMEM_PARAM)) {
+            fpMem = Math.max(records * STATES_PER_RECORD * BYTES_PER_STATE / MB, MIN_FPMEM);
+            fpMem = Math.min(fpMem, worker.getHeap() / 2);
+        }
+        int workers = overrides.containsKey(WORKERS_PARAM) ? worker.getWorkers() : getWorkers(records);
+        return new WindowResources(worker.getHeap(), worker.getFPSet(), fpMem, workers);
+    }
+
+    /**
+     * Returns the number of TLC workers with which to check the given number of records.
+     *
+     * @param records the number of records
+     * @return the number of TLC workers
+     */
+    private int getWorkers(long records) {
+        return (int) Math.max(Math.min((records + RECORDS_PER_WORKER - 1) / RECORDS_PER_WORKER, cores), 1);
+    }
+
+    /**
+     * Returns the fingerprint set implementation, unless overridden.
+     *
+     * @param fpSet the default fingerprint set implementation
+     * @return the fingerprint set implementation class name
+     */
+    private String getFPSet(String fpSet) {
+        String override = overrides.get(FPSET_PARAM);
+        if (override == null) {
+            return fpSet;
+        }
+        return override.contains(".") ? override : FPSET_PACKAGE + override;
+    }
+
+    /**
+     * Applies the source's sizing overrides to the given resources.
+     *
+     * @param resources the sized resources
+     * @return the overridden resources
+     */
+    private WindowResources override(WindowResources resources) {
+        String heap = overrides.get(HEAP_PARAM);
+        String fpMem = overrides.get(FPMEM_PARAM);
+        String workers = overrides.get(WORKERS_PARAM);
+        long heapSize = heap != null ? Long.parseLong(heap) : resources.getHeap();
+        long fpMemSize = fpMem != null ? Long.parseLong(fpMem) : resources.getFPMem();
+        if (fpMem == null && resources.isOnHeap()) {
+            fpMemSize = Math.min(fpMemSize, heapSize / 2);
+        }
+        return new WindowResources(
+            heapSize,
+            resources.getFPSet(),
+            fpMemSize,
+            workers != null ? Integer.parseInt(workers) : resources.getWorkers());
+    }
+}
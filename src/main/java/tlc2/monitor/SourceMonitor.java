@@ -21,18 +21,38 @@ import tlc2.monitor.source.Source;
 import tlc2.monitor.util.ConsoleLogger;
 import tlc2.monitor.util.Logger;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Monitors a source and evaluates an infinite stream of traces using TLC.
  * <p>
  * Sources can consume traces from multiple partitions. The source monitor assumes traces within a partition
  * are ordered, but traces cannot be ordered across partitions. A {@link PartitionMonitor} is run for each
- * partition provided by the source.
+ * partition provided by the source. The source's partitions are periodically rediscovered, and monitors are
+ * started for new partitions, stopped for removed partitions, and restarted if they exit with an error.
+ * <p>
+ * If a cluster directory is configured, the partitions are instead split between the members of the cluster by a
+ * {@link ClusterCoordinator}, and a partition monitor is run only for each partition assigned to this member.
  */
 final class SourceMonitor {
     private static final Logger LOGGER = new ConsoleLogger();
+    private static final String CDS_DIR = "cds";
+    private static final long DISCOVERY_INTERVAL = 10000;
+    private static final long IDLE_TIMEOUT = 60000;
 
     private final Source source;
     private final Sink sink;
@@ -48,31 +68,271 @@ final class SourceMonitor {
      * Runs the source checker.
      */
     public void run() throws Exception {
-        List<Thread> threads = new ArrayList<>(source.getPartitions().size());
-        for (Partition partition : source.getPartitions()) {
-            Thread thread = new Thread(() -> monitor(partition));
-            thread.start();
-            threads.add(thread);
+        // If enabled, build or load the class-data sharing archive for TLC child processes.
+        ClassDataArchive archive = null;
+        if (config.isClassDataSharingEnabled()) {
+            archive = ClassDataArchive.create(new File(config.getMetaDir(), CDS_DIR));
+            if (archive != null && !archive.isAvailable() && !source.getPartitions().isEmpty()) {
+                Partition partition = source.getPartitions().iterator().next();
+                new PartitionMonitor(partition, source, sink, config, null, null, null, null, null).train(archive);
+            }
+        }
+
+        // Size TLC processes by the number that may run concurrently.
+        ResourceSizer sizer = new ResourceSizer(source.uri(), getConcurrency(source.getPartitions().size()));
+
+        // If enabled, start a pool of warm TLC workers to be shared by all partitions.
+        // Streaming partitions each run their own long-lived TLC process and do not use the pool.
+        TLCWorkerPool pool = null;
+        if (config.getPool() > 0 && !config.isStreaming()) {
+            WindowResources resources = sizer.sizeWorker();
+            LOGGER.log("Starting %d TLC workers with %s", config.getPool(), resources);
+            List<String> jvmArgs = new ArrayList<>();
+            if (archive != null) {
+                jvmArgs.addAll(archive.getJvmArgs());
+            }
+            jvmArgs.addAll(resources.getJvmArgs());
+            pool = new TLCWorkerPool(config.getPool(), jvmArgs, PartitionMonitor.getClasspathEnv(config));
+        }
+
+        // Limit the number of windows checked concurrently across all partitions.
+        Semaphore permits = new Semaphore(config.getMaxWindows());
+
+        // Partition monitors spend most of their time waiting for records, so they share an executor, which
+        // runs them on virtual threads where the runtime supports them. The executor is bounded by the number of
+        // partitions monitored, and grown as partitions are discovered or assigned.
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+            MonitorThreads.newThreadFactory("partition-monitor"));
+
+        // Windows are only checked while holding a permit, so the windows of all partitions share a pool bounded
+        // by the number of permits. Idle threads exit so the pool holds no threads while no window is checked.
+        ThreadPoolExecutor windowExecutor = new ThreadPoolExecutor(
+            config.getMaxWindows(), config.getMaxWindows(), IDLE_TIMEOUT, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), MonitorThreads.newThreadFactory("window"));
+        windowExecutor.allowCoreThreadTimeOut(true);
+        Map<Integer, PartitionTask> tasks = new ConcurrentHashMap<>();
+        TLCWorkerPool workers = pool;
+        ClassDataArchive sharedArchive = archive;
+        ClusterCoordinator coordinator = null;
+        Thread shutdownHook = null;
+        try {
+            if (config.getClusterDir() != null) {
+                coordinator = new ClusterCoordinator(config.getClusterDir(), config.getMember());
+                LOGGER.log("Joining cluster %s as %s", config.getClusterDir(), coordinator.getMember());
+
+                // Leave the cluster when the monitor is terminated so the remaining members rebalance immediately.
+                // Partition monitors are stopped first so no partition is checked once its lease is released.
+                ClusterCoordinator member = coordinator;
+                shutdownHook = new Thread(() -> {
+                    try {
+                        for (PartitionTask task : tasks.values()) {
+                            task.stop();
+                        }
+                        member.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                Runtime.getRuntime().addShutdownHook(shutdownHook);
+            }
+
+            for (; ; ) {
+                // A failed refresh keeps the known partitions and is retried on the next tick.
+                try {
+                    if (source.refresh()) {
+                        LOGGER.log("Discovered partitions %s for %s", getPartitionIds(), source);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.log("Failed to refresh partitions for %s: %s", source, e);
+                }
+                Set<Integer> assigned = getPartitionIds();
+                if (coordinator != null) {
+                    coordinator.heartbeat();
+                    assigned = coordinator.getAssignment(assigned);
+                }
+
+                // Stop monitors for partitions that were removed from the source or assigned to another member.
+                Iterator<Map.Entry<Integer, PartitionTask>> iterator = tasks.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<Integer, PartitionTask> entry = iterator.next();
+                    int id = entry.getKey();
+                    if (!assigned.contains(id) || (coordinator != null && !coordinator.holds(id))) {
+                        LOGGER.log("Releasing %s partition %d", source, id);
+                        entry.getValue().stop();
+                        if (coordinator != null) {
+                            coordinator.release(id);
+                        }
+                        iterator.remove();
+                    }
+                }
+
+                // Resize the partition monitor executor and TLC processes for the partitions to be monitored.
+                if (assigned.size() > executor.getMaximumPoolSize()) {
+                    executor.setMaximumPoolSize(assigned.size());
+                    executor.setCorePoolSize(assigned.size());
+                }
+                sizer.setConcurrency(getConcurrency(assigned.size()));
+
+                // Remove monitors that exited on their own, e.g. after an error, so they're restarted below.
+                iterator = tasks.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<Integer, PartitionTask> entry = iterator.next();
+                    if (entry.getValue().isDone()) {
+                        LOGGER.log("Restarting monitor for %s partition %d", source, entry.getKey());
+                        iterator.remove();
+                    }
+                }
+
+                // Start monitors for new partitions, once their leases have been acquired if clustered.
+                for (int id : assigned) {
+                    Partition partition = source.getPartition(id);
+                    if (partition == null || tasks.containsKey(id)) {
+                        continue;
+                    }
+                    if (coordinator != null && !coordinator.acquire(id)) {
+                        continue;
+                    }
+                    PartitionTask task = new PartitionTask(
+                        () -> monitor(partition, workers, permits, windowExecutor, sharedArchive, sizer));
+                    tasks.put(id, task);
+                    executor.execute(task);
+                }
+                Thread.sleep(coordinator != null ? ClusterCoordinator.HEARTBEAT_INTERVAL : DISCOVERY_INTERVAL);
+            }
+        } finally {
+            for (PartitionTask task : tasks.values()) {
+                task.stop();
+            }
+            executor.shutdownNow();
+            windowExecutor.shutdownNow();
+            if (coordinator != null) {
+                coordinator.close();
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            }
+            if (pool != null) {
+                pool.close();
+            }
         }
+    }
 
-        for (Thread thread : threads) {
-            thread.join();
+    /**
+     * Returns the maximum number of TLC processes that may run concurrently for the given number of partitions.
+     *
+     * @param partitions the number of partitions monitored
+     * @return the maximum number of concurrent TLC processes
+     */
+    private int getConcurrency(int partitions) {
+        if (config.isStreaming()) {
+            return partitions;
+        } else if (config.getPool() > 0) {
+            return config.getPool();
         }
+        return Math.min(config.getMaxWindows(), partitions * config.getPartitionWindows());
+    }
+
+    /**
+     * Returns the IDs of the source's partitions.
+     *
+     * @return the partition IDs
+     */
+    private Set<Integer> getPartitionIds() {
+        Set<Integer> ids = new TreeSet<>();
+        for (Partition partition : source.getPartitions()) {
+            ids.add(partition.id());
+        }
+        return ids;
     }
 
     /**
      * Starts the monitor for the given partition.
      *
      * @param partition the partition for which to run the monitor
+     * @param pool      the TLC worker pool, or {@code null} to fork a TLC process per window
+     * @param permits   the permits limiting the number of windows checked concurrently by the monitor
+     * @param executor  the executor on which to check windows
+     * @param archive   the class-data sharing archive for TLC child processes, or {@code null}
+     * @param sizer     the sizer for TLC process resources
      */
-    private void monitor(Partition partition) {
-        PartitionMonitor checker = new PartitionMonitor(partition, source, sink, config);
-        LOGGER.log("Starting partition monitor for %s partition %d", source, partition.id());
+    private void monitor(
+        Partition partition,
+        TLCWorkerPool pool,
+        Semaphore permits,
+        ExecutorService executor,
+        ClassDataArchive archive,
+        ResourceSizer sizer) {
+        PartitionMonitor checker =
+            new PartitionMonitor(partition, source, sink, config, pool, permits, executor, archive, sizer);
+        LOGGER.log("Starting partition monitor for %s partition %d (%s)", source, partition.id(), partition);
         try {
             checker.run();
+        } catch (InterruptedException e) {
+            LOGGER.log("Stopped partition monitor for %s partition %d", source, partition.id());
         } catch (Exception e) {
             LOGGER.log("An error occurred while monitoring %s partition %d", source, partition.id());
             e.printStackTrace();
         }
     }
+
+    /**
+     * Partition monitor running on the shared executor.
+     * <p>
+     * The task can be stopped whether or not it has started, and stopping it waits for the partition monitor to
+     * exit so that the partition can safely be handed to another member.
+     */
+    private static final class PartitionTask implements Runnable {
+        private final Runnable monitor;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Thread thread;
+        private boolean stopped;
+
+        PartitionTask(Runnable monitor) {
+            this.monitor = monitor;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (stopped) {
+                    done.countDown();
+                    return;
+                }
+                thread = Thread.currentThread();
+            }
+            try {
+                monitor.run();
+            } finally {
+                synchronized (this) {
+                    thread = null;
+                    // Clear an interrupt that raced with the monitor's exit before the thread is reused.
+                    Thread.interrupted();
+                }
+                done.countDown();
+            }
+        }
+
+        /**
+         * Returns whether the partition monitor has exited.
+         *
+         * @return whether the task has finished running
+         */
+        boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        /**
+         * Interrupts the partition monitor and waits for it to exit.
+         */
+        void stop() throws InterruptedException {
+            synchronized (this) {
+                stopped = true;
+                if (thread != null) {
+                    thread.interrupt();
+                }
+            }
+            done.await();
+        }
+    }
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tlc2.monitor;
+
+import tlc2.tool.impl.FastTool;
+import util.FilenameToStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Caches the parsed and semantically analyzed spec across the windows checked by a worker.
+ * <p>
+ * Parsing the spec with SANY and processing its definitions dominates the startup of short windows, yet the
+ * modules and the model config are the same for every window of a monitor. The cache holds the {@link FastTool}
+ * built for the last job and hands it to the next job if the job's spec and config are unchanged. The cached tool
+ * is keyed by a hash of the contents of every module file loaded by the spec and of the config file, so an edited
+ * spec is always parsed again.
+ */
+final class SpecCache {
+    private static final String CONFIG_EXTENSION = ".cfg";
+
+    private String mainFile;
+    private String configFile;
+    private String key;
+    private FastTool tool;
+    private List<File> files;
+
+    /**
+     * Returns the tool for the given spec, parsing the spec if it is not cached.
+     *
+     * @param mainFile   the root module
+     * @param configFile the model config
+     * @param resolver   the resolver used to locate modules
+     * @return the tool for the spec
+     */
+    synchronized FastTool getTool(String mainFile, String configFile, FilenameToStream resolver) {
+        if (tool != null && mainFile.equals(this.mainFile) && configFile.equals(this.configFile)
+            && hash(files).equals(key)) {
+            return tool;
+        }
+        tool = null;
+        FastTool tool = new FastTool(mainFile, configFile, resolver);
+        List<File> files = new ArrayList<>(tool.getModuleFiles(resolver));
+        files.add(getConfig(configFile));
+        this.mainFile = mainFile;
+        this.configFile = configFile;
+        this.files = files;
+        this.key = hash(files);
+        this.tool = tool;
+        return tool;
+    }
+
+    /**
+     * Drops the cached tool.
+     */
+    synchronized void clear() {
+        tool = null;
+        files = null;
+        key = null;
+    }
+
+    private static File getConfig(String configFile) {
+        return new File(configFile.endsWith(CONFIG_EXTENSION) ? configFile : configFile + CONFIG_EXTENSION);
+    }
+
+    private static String hash(List<File> files) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (File file : files) {
+                digest.update(file.getPath().getBytes(StandardCharsets.UTF_8));
+                if (file.isFile()) {
+                    digest.update(Files.readAllBytes(file.toPath()));
+                }
+            }
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tlc2.monitor;
+
+import tlc2.monitor.source.Partition;
+import tlc2.monitor.util.ConsoleLogger;
+import tlc2.monitor.util.Logger;
+import tlc2.output.EC;
+import tlc2.overrides.Traces;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Carries the states at which behaviors leave a window into the next window of a partition.
+ * <p>
+ * Each window writes the distinct states from which its behaviors attempted to read past the end of the window,
+ * and the next window starts from those states rather than from the spec's initial predicate. Trace offsets in
+ * carried states are relative to the first window in the chain, so the chain's base index is stored with the
+ * position of the next window. If a window fails or is dropped by the skip overrun policy, the chain is broken and
+ * the next window starts from the initial predicate. Windows skipped for holding no new records carry the states
+ * forward unchanged.
+ */
+final class StateCarrier {
+    private static final Logger LOGGER = new ConsoleLogger();
+    private static final String CHAIN_FILE = "chain.properties";
+    private static final String BASE_KEY = "base";
+    private static final String POSITION_KEY = "position";
+
+    private final Partition partition;
+    private final File dir;
+    private long base;
+    private long position = -1;
+
+    StateCarrier(Partition partition, File dir) throws IOException {
+        this.partition = partition;
+        this.dir = dir;
+        File chainFile = new File(dir, CHAIN_FILE);
+        if (chainFile.exists()) {
+            Properties properties = new Properties();
+            try (InputStream input = new FileInputStream(chainFile)) {
+                properties.load(input);
+            }
+            base = Long.parseLong(properties.getProperty(BASE_KEY));
+            position = Long.parseLong(properties.getProperty(POSITION_KEY));
+        }
+    }
+
+    /**
+     * Returns the file containing the states carried into the window starting at the given position.
+     *
+     * @param position the window start time or start index
+     * @return the carried states file
+     */
+    private File getStatesFile(long position) {
+        return new File(dir, String.format("%d.states", position));
+    }
+
+    /**
+     * Configures the environment for the given window to start from the carried states, if any, and to record
+     * the states to carry into the next window.
+     *
+     * @param window the window to check
+     * @param env    the TLC environment to configure
+     * @return the base index of the window's chain
+     */
+    synchronized long prepare(Window window, Map<String, String> env) throws IOException {
+        long startIndex = window.getStart();
+        if (window.getType() == Window.Type.TIME) {
+            startIndex = Math.max(partition.indexOf(window.getStart()), 1);
+            env.put(Traces.WINDOW_START_INDEX_ENV, String.valueOf(startIndex));
+        }
+
+        long chainBase = startIndex;
+        File statesFile = getStatesFile(window.getStart());
+        if (position == window.getStart() && statesFile.exists()) {
+            chainBase = base;
+            env.put(Traces.CARRY_IN_ENV, statesFile.getAbsolutePath());
+        } else {
+            LOGGER.log("No states to carry into %s for %s; starting from the initial predicate", window, partition);
+        }
+        env.put(Traces.WINDOW_BASE_INDEX_ENV, String.valueOf(chainBase));
+        File tempFile = new File(dir, getStatesFile(window.getEnd()).getName() + ".tmp");
+        env.put(Traces.CARRY_OUT_ENV, tempFile.getAbsolutePath());
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create carried states directory " + dir);
+        }
+        return chainBase;
+    }
+
+    /**
+     * Carries the states carried into the given window forward unchanged, for a window skipped because it holds no
+     * new records.
+     *
+     * @param window the skipped window
+     */
+    synchronized void skip(Window window) throws IOException {
+        if (position == window.getStart()) {
+            commit(window, base, EC.ExitStatus.SUCCESS);
+        }
+    }
+
+    /**
+     * Records the states carried out of the given window once it has been checked.
+     *
+     * @param window    the checked window
+     * @param chainBase the base index returned by {@link #prepare(Window, Map)}
+     * @param exitCode  the TLC exit code
+     */
+    synchronized void commit(Window window, long chainBase, int exitCode) throws IOException {
+        File inFile = getStatesFile(window.getStart());
+        File outFile = getStatesFile(window.getEnd());
+        File tempFile = new File(dir, outFile.getName() + ".tmp");
+
+        // TLC exit codes below FAILURE_SPEC_EVAL indicate the window was fully explored, even if it found violations.
+        if (exitCode >= EC.ExitStatus.FAILURE_SPEC_EVAL) {
+            Files.deleteIfExists(tempFile.toPath());
+            return;
+        }
+
+        if (tempFile.exists()) {
+            Files.move(tempFile.toPath(), outFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        } else if (inFile.exists()) {
+            // No behavior left the window, so the carried states are carried forward unchanged.
+            Files.move(inFile.toPath(), outFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            return;
+        }
+
+        base = chainBase;
+        position = window.getEnd();
+        Properties properties = new Properties();
+        properties.setProperty(BASE_KEY, String.valueOf(base));
+        properties.setProperty(POSITION_KEY, String.valueOf(position));
+        File chainFile = new File(dir, CHAIN_FILE);
+        File tempChainFile = new File(dir, CHAIN_FILE + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(tempChainFile)) {
+            properties.store(output, partition.toString());
+            output.getFD().sync();
+        }
+        Files.move(tempChainFile.toPath(), chainFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(inFile.toPath());
+    }
+}
@@ -20,11 +20,20 @@ import tlc2.monitor.sink.Sink;
 import tlc2.monitor.sink.Sinks;
 import tlc2.monitor.source.Source;
 import tlc2.monitor.source.Sources;
+import tla2sany.drivers.FrontEndException;
+import tla2sany.drivers.SANY;
+import tla2sany.modanalyzer.SpecObj;
+import tla2sany.semantic.OpDeclNode;
 import tlc2.output.SpecWriterUtilities;
+import tlc2.tool.impl.ModelConfig;
+import util.SimpleFilenameToStream;
 import util.TLAConstants;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
 import java.time.Duration;
 import java.util.ArrayList;
@@ -39,6 +48,11 @@ public class TLCMonitor {
     private static final Pattern DURATION_PATTERN = Pattern.compile("([0-9]+)([dhms])");
     private static final String TMP_DIR = System.getProperty("java.io.tmpdir");
     private static final long DEFAULT_WINDOW = 1000 * 60;
+    private static final int DEFAULT_POOL = Runtime.getRuntime().availableProcessors();
+    private static final int DEFAULT_MAX_WINDOWS = Runtime.getRuntime().availableProcessors();
+    private static final int DEFAULT_PARTITION_WINDOWS = 2;
+    private static final int DEFAULT_WINDOW_QUEUE = 4;
+    private static final int DEFAULT_REPLAY_PARALLELISM = Runtime.getRuntime().availableProcessors();
 
     /**
      * Runs the TLC monitor.
@@ -52,11 +66,15 @@ public class TLCMonitor {
         // If monitoring is enabled, run the TLC monitor.
         // Otherwise, run the TLC main with the original arguments.
         if (config.isMonitoringEnabled()) {
-            final Source source = Sources.getSource(config.getSource());
+            final Source source = Sources.getSource(config.getSource(), config.getStateDir());
             final Sink sink = config.getSink() != null ? Sinks.getSink(config.getSink()) : null;
 
             // Run the TLC monitor
-            new TLCMonitor(source, sink, config).run();
+            try {
+                new TLCMonitor(source, sink, config).run();
+            } finally {
+                source.close();
+            }
         } else {
             TLC.main(args);
         }
@@ -91,6 +109,22 @@ public class TLCMonitor {
         String source = null;
         String sink = null;
         long window = DEFAULT_WINDOW;
+        long stride = 0;
+        long windowRecords = 0;
+        long strideRecords = 0;
+        long lateness = 0;
+        boolean stream = false;
+        int pool = DEFAULT_POOL;
+        int maxWindows = DEFAULT_MAX_WINDOWS;
+        int partitionWindows = DEFAULT_PARTITION_WINDOWS;
+        int windowQueue = DEFAULT_WINDOW_QUEUE;
+        OverrunPolicy overrunPolicy = OverrunPolicy.WAIT;
+        int replayParallelism = DEFAULT_REPLAY_PARALLELISM;
+        boolean classDataSharing = true;
+        boolean carryStates = false;
+        boolean specCache = true;
+        File clusterDir = null;
+        String member = ManagementFactory.getRuntimeMXBean().getName();
         List<String> tlcArgs = new ArrayList<>();
 
         String spec = null;
@@ -113,7 +147,71 @@ public class TLCMonitor {
                     i += 2;
                     break;
                 case "-window":
-                    window = parseWindow(args[i + 1]);
+                    window = parseDuration(args[i + 1]);
+                    i += 2;
+                    break;
+                case "-stride":
+                    stride = parseDuration(args[i + 1]);
+                    i += 2;
+                    break;
+                case "-windowrecords":
+                    windowRecords = Long.parseLong(args[i + 1]);
+                    i += 2;
+                    break;
+                case "-striderecords":
+                    strideRecords = Long.parseLong(args[i + 1]);
+                    i += 2;
+                    break;
+                case "-lateness":
+                    lateness = parseDuration(args[i + 1]);
+                    i += 2;
+                    break;
+                case "-stream":
+                    stream = true;
+                    i += 1;
+                    break;
+                case "-pool":
+                    pool = Integer.parseInt(args[i + 1]);
+                    i += 2;
+                    break;
+                case "-maxwindows":
+                    maxWindows = Integer.parseInt(args[i + 1]);
+                    i += 2;
+                    break;
+                case "-partitionwindows":
+                    partitionWindows = Integer.parseInt(args[i + 1]);
+                    i += 2;
+                    break;
+                case "-windowqueue":
+                    windowQueue = Integer.parseInt(args[i + 1]);
+                    i += 2;
+                    break;
+                case "-overrun":
+                    overrunPolicy = OverrunPolicy.valueOf(args[i + 1].toUpperCase());
+                    i += 2;
+                    break;
+                case "-replayparallelism":
+                    replayParallelism = Integer.parseInt(args[i + 1]);
+                    i += 2;
+                    break;
+                case "-carrystates":
+                    carryStates = true;
+                    i += 1;
+                    break;
+                case "-nocds":
+                    classDataSharing = false;
+                    i += 1;
+                    break;
+                case "-nospeccache":
+                    specCache = false;
+                    i += 1;
+                    break;
+                case "-cluster":
+                    clusterDir = new File(args[i + 1]);
+                    i += 2;
+                    break;
+                case "-member":
+                    member = args[i + 1];
                     i += 2;
                     break;
                 case "-config":
@@ -141,6 +239,47 @@ public class TLCMonitor {
             throw new IllegalArgumentException("No TLA+ specification provided");
         }
 
+        // By default, windows overlap by half their length.
+        if (stride == 0) {
+            stride = window / 2;
+        }
+        if (strideRecords == 0) {
+            strideRecords = Math.max(windowRecords / 2, 1);
+        }
+        if (window <= 0 || stride <= 0) {
+            throw new IllegalArgumentException("-window and -stride must be positive durations");
+        }
+        if (windowRecords < 0 || strideRecords <= 0) {
+            throw new IllegalArgumentException("-windowrecords and -striderecords must be positive counts");
+        }
+        if (windowQueue < 1) {
+            throw new IllegalArgumentException("-windowqueue must be at least 1");
+        }
+        if (maxWindows < 1) {
+            throw new IllegalArgumentException("-maxwindows must be at least 1");
+        }
+        if (partitionWindows < 1) {
+            throw new IllegalArgumentException("-partitionwindows must be at least 1");
+        }
+        if (replayParallelism < 1) {
+            throw new IllegalArgumentException("-replayparallelism must be at least 1");
+        }
+        if (pool < 0) {
+            throw new IllegalArgumentException("-pool must not be negative");
+        }
+
+        // Windows that carry states start where the previous window ended, so they must not overlap, and each
+        // window must wait for the states of the window before it.
+        if (carryStates) {
+            if (stream) {
+                throw new IllegalArgumentException("-carrystates cannot be used with -stream");
+            }
+            stride = window;
+            strideRecords = Math.max(windowRecords, 1);
+            partitionWindows = 1;
+            replayParallelism = 1;
+        }
+
         // If monitoring is enabled, configure action constraints.
         File moduleDir = new File(System.getProperty("user.dir"));
         if (monitor) {
@@ -174,11 +313,32 @@ public class TLCMonitor {
 
                 // Create the temporary module and configuration file with an action constraint.
                 ModelWriter writer = new ModelWriter();
-                writer.copyConfig(configFile);
                 writer.addPrimer("MC", specFile.getName().replace(".tla", ""));
+                String constraint = "~UpperBound";
+                if (carryStates) {
+                    // Start from the states carried from the previous window, if any, and record the states
+                    // at which behaviors leave the window so they can be carried into the next window.
+                    String init = getInit(configFile);
+                    List<String> variables = getVariables(specFile);
+                    List<String> assignments = new ArrayList<>();
+                    for (int v = 0; v < variables.size(); v++) {
+                        assignments.add(String.format("%s = s[%d]", variables.get(v), v + 1));
+                    }
+                    writer.copyConfig(configFile, init);
+                    writer.addFormulaList(
+                        SpecWriterUtilities.createSourceContent(
+                            String.format("IF CarriedStates = {} THEN %s ELSE \\E s \\in CarriedStates : %s",
+                                init, String.join(" /\\ ", assignments)),
+                            TLAConstants.Schemes.INIT_SCHEME),
+                        TLAConstants.KeyWords.INIT,
+                        CARRY_INIT);
+                    constraint = String.format("~(UpperBound /\\ CarryState(<<%s>>))", String.join(", ", variables));
+                } else {
+                    writer.copyConfig(configFile);
+                }
                 writer.addFormulaList(
                     SpecWriterUtilities.createSourceContent(
-                        "~UpperBound",
+                        constraint,
                         TLAConstants.Schemes.ACTIONCONSTRAINT_SCHEME),
                     TLAConstants.KeyWords.ACTION_CONSTRAINT,
                     WINDOW_CONSTRAINT);
@@ -188,6 +348,8 @@ public class TLCMonitor {
                 tlcArgs.add("-config");
                 tlcArgs.add(tempConfigFile.getAbsolutePath());
                 tlcArgs.add(tempSpecFile.getAbsolutePath());
+            } else if (carryStates) {
+                throw new IllegalArgumentException("-carrystates requires a model configuration");
             } else {
                 tlcArgs.add(spec);
             }
@@ -200,40 +362,104 @@ public class TLCMonitor {
             }
             tlcArgs.add(spec);
         }
-        return new TLCMonitorConfig(monitor, moduleDir, metaDir, source, sink, window, tlcArgs);
+        return new TLCMonitorConfig(
+            monitor,
+            moduleDir,
+            metaDir,
+            source,
+            sink,
+            window,
+            stride,
+            windowRecords,
+            strideRecords,
+            lateness,
+            stream,
+            pool,
+            maxWindows,
+            partitionWindows,
+            windowQueue,
+            overrunPolicy,
+            replayParallelism,
+            classDataSharing,
+            carryStates,
+            specCache,
+            clusterDir,
+            member,
+            tlcArgs);
     }
 
     /**
-     * Parses a window argument.
+     * Parses a duration argument.
      *
-     * @param arg the string window argument
-     * @return the parsed window length in milliseconds
+     * @param arg the string duration argument
+     * @return the parsed duration in milliseconds
      */
-    private static long parseWindow(String arg) {
+    private static long parseDuration(String arg) {
         Matcher matcher = DURATION_PATTERN.matcher(arg.toLowerCase());
-        long window = 0;
+        long duration = 0;
         while (matcher.find()) {
             int value = Integer.parseInt(matcher.group(1));
             String unit = matcher.group(2);
             switch (unit) {
                 case "d":
-                    window += Duration.ofDays(value).toMillis();
+                    duration += Duration.ofDays(value).toMillis();
                     break;
                 case "h":
-                    window += Duration.ofHours(value).toMillis();
+                    duration += Duration.ofHours(value).toMillis();
                     break;
                 case "m":
-                    window += Duration.ofMinutes(value).toMillis();
+                    duration += Duration.ofMinutes(value).toMillis();
                     break;
                 case "s":
-                    window += Duration.ofSeconds(value).toMillis();
+                    duration += Duration.ofSeconds(value).toMillis();
                     break;
             }
         }
-        return window;
+        return duration;
     }
 
     private static final String WINDOW_CONSTRAINT = "windowConstraint";
+    private static final String CARRY_INIT = "carryInit";
+
+    /**
+     * Returns the name of the initial predicate in the given model configuration.
+     *
+     * @param configFile the model configuration file
+     * @return the name of the initial predicate
+     */
+    private static String getInit(File configFile) {
+        ModelConfig modelConfig = new ModelConfig(
+            configFile.getAbsolutePath(), new SimpleFilenameToStream(configFile.getParent()));
+        modelConfig.parse();
+        if (modelConfig.getInit().isEmpty()) {
+            throw new IllegalArgumentException("-carrystates requires a model configuration with INIT and NEXT");
+        }
+        return modelConfig.getInit();
+    }
+
+    /**
+     * Returns the names of the variables declared in the given specification.
+     *
+     * @param specFile the specification file
+     * @return the names of the specification's variables
+     */
+    private static List<String> getVariables(File specFile) {
+        String path = specFile.getAbsolutePath();
+        SpecObj specObj = new SpecObj(path, new SimpleFilenameToStream(specFile.getAbsoluteFile().getParent()));
+        try {
+            if (SANY.frontEndMain(specObj, path, new PrintStream(new ByteArrayOutputStream())) != 0
+                || specObj.getExternalModuleTable().getRootModule() == null) {
+                throw new IllegalStateException("Failed to parse specification " + specFile);
+            }
+        } catch (FrontEndException e) {
+            throw new IllegalStateException("Failed to parse specification " + specFile, e);
+        }
+        List<String> variables = new ArrayList<>();
+        for (OpDeclNode variable : specObj.getExternalModuleTable().getRootModule().getVariableDecls()) {
+            variables.add(variable.getName().toString());
+        }
+        return variables;
+    }
 
     /**
      * Builds the module and model configuration.
@@ -28,15 +28,70 @@ final class TLCMonitorConfig {
     private final String source;
     private final String sink;
     private final long window;
+    private final long stride;
+    private final long windowRecords;
+    private final long strideRecords;
+    private final long lateness;
+    private final boolean stream;
+    private final int pool;
+    private final int maxWindows;
+    private final int partitionWindows;
+    private final int windowQueue;
+    private final OverrunPolicy overrunPolicy;
+    private final int replayParallelism;
+    private final boolean classDataSharing;
+    private final boolean carryStates;
+    private final boolean specCache;
+    private final File clusterDir;
+    private final String member;
     private final List<String> args;
 
-    TLCMonitorConfig(boolean monitor, File moduleDir, File metaDir, String source, String sink, long window, List<String> args) {
+    TLCMonitorConfig(
+        boolean monitor,
+        File moduleDir,
+        File metaDir,
+        String source,
+        String sink,
+        long window,
+        long stride,
+        long windowRecords,
+        long strideRecords,
+        long lateness,
+        boolean stream,
+        int pool,
+        int maxWindows,
+        int partitionWindows,
+        int windowQueue,
+        OverrunPolicy overrunPolicy,
+        int replayParallelism,
+        boolean classDataSharing,
+        boolean carryStates,
+        boolean specCache,
+        File clusterDir,
+        String member,
+        List<String> args) {
         this.monitor = monitor;
         this.moduleDir = moduleDir;
         this.metaDir = metaDir;
         this.source = source;
         this.sink = sink;
         this.window = window;
+        this.stride = stride;
+        this.windowRecords = windowRecords;
+        this.strideRecords = strideRecords;
+        this.lateness = lateness;
+        this.stream = stream;
+        this.pool = pool;
+        this.maxWindows = maxWindows;
+        this.partitionWindows = partitionWindows;
+        this.windowQueue = windowQueue;
+        this.overrunPolicy = overrunPolicy;
+        this.replayParallelism = replayParallelism;
+        this.classDataSharing = classDataSharing;
+        this.carryStates = carryStates;
+        this.specCache = specCache;
+        this.clusterDir = clusterDir;
+        this.member = member;
         this.args = args;
     }
 
@@ -94,6 +149,177 @@ final class TLCMonitorConfig {
         return window;
     }
 
+    /**
+     * Returns the sliding window stride.
+     * <p>
+     * A stride equal to the window length produces tumbling windows that do not overlap.
+     *
+     * @return the time between the starts of consecutive windows in milliseconds
+     */
+    long getStride() {
+        return stride;
+    }
+
+    /**
+     * Returns whether windows are bounded by record counts rather than by time.
+     *
+     * @return whether count-based windows are enabled
+     */
+    boolean isCountBased() {
+        return windowRecords > 0;
+    }
+
+    /**
+     * Returns the number of records in a count-based window.
+     *
+     * @return the number of records in each window, or {@code 0} if windows are bounded by time
+     */
+    long getWindowRecords() {
+        return windowRecords;
+    }
+
+    /**
+     * Returns the count-based window stride.
+     *
+     * @return the number of records between the starts of consecutive count-based windows
+     */
+    long getStrideRecords() {
+        return strideRecords;
+    }
+
+    /**
+     * Returns the allowed lateness for time windows.
+     * <p>
+     * A time window is checked once the timestamp of the newest record in the partition exceeds the end of the
+     * window by the allowed lateness.
+     *
+     * @return the allowed lateness in milliseconds
+     */
+    long getLateness() {
+        return lateness;
+    }
+
+    /**
+     * Returns whether streaming is enabled.
+     * <p>
+     * When streaming is enabled, each partition is checked by a single long-lived TLC process instead of windows.
+     *
+     * @return whether streaming is enabled
+     */
+    boolean isStreaming() {
+        return stream;
+    }
+
+    /**
+     * Returns the number of warm TLC worker processes.
+     *
+     * @return the number of warm TLC worker processes, or {@code 0} to fork a TLC process per window
+     */
+    int getPool() {
+        return pool;
+    }
+
+    /**
+     * Returns the maximum number of windows checked concurrently by the monitor.
+     *
+     * @return the maximum number of concurrent windows across all partitions
+     */
+    int getMaxWindows() {
+        return maxWindows;
+    }
+
+    /**
+     * Returns the maximum number of windows checked concurrently for a single partition.
+     *
+     * @return the maximum number of concurrent windows per partition
+     */
+    int getPartitionWindows() {
+        return partitionWindows;
+    }
+
+    /**
+     * Returns the maximum number of windows queued for a single partition.
+     *
+     * @return the window queue size per partition
+     */
+    int getWindowQueue() {
+        return windowQueue;
+    }
+
+    /**
+     * Returns the policy applied when a partition's window queue is full.
+     *
+     * @return the window overrun policy
+     */
+    OverrunPolicy getOverrunPolicy() {
+        return overrunPolicy;
+    }
+
+    /**
+     * Returns the number of historical windows checked concurrently while replaying a partition.
+     *
+     * @return the replay parallelism
+     */
+    int getReplayParallelism() {
+        return replayParallelism;
+    }
+
+    /**
+     * Returns whether TLC child processes share an application class-data archive.
+     *
+     * @return whether class-data sharing is enabled
+     */
+    boolean isClassDataSharingEnabled() {
+        return classDataSharing;
+    }
+
+    /**
+     * Returns whether each window starts from the states at which the previous window's behaviors ended.
+     *
+     * @return whether states are carried across windows
+     */
+    boolean isCarryingStates() {
+        return carryStates;
+    }
+
+    /**
+     * Returns whether pooled TLC workers reuse the parsed spec across windows.
+     *
+     * @return whether the spec cache is enabled
+     */
+    boolean isSpecCacheEnabled() {
+        return specCache;
+    }
+
+    /**
+     * Returns the directory shared by the members of the monitor cluster.
+     *
+     * @return the cluster directory, or {@code null} if the monitor is not clustered
+     */
+    File getClusterDir() {
+        return clusterDir;
+    }
+
+    /**
+     * Returns the identifier of this monitor in the cluster.
+     *
+     * @return the member identifier
+     */
+    String getMember() {
+        return member;
+    }
+
+    /**
+     * Returns the directory in which partition checkpoints and carried states are stored.
+     * <p>
+     * Clustered monitors store partition state in the cluster directory so that it moves with the partition.
+     *
+     * @return the partition state directory
+     */
+    File getStateDir() {
+        return clusterDir != null ? clusterDir : metaDir;
+    }
+
     /**
      * Returns the TLC arguments.
      *
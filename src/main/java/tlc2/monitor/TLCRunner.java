@@ -17,10 +17,16 @@ package tlc2.monitor;
 
 import tlc2.TLC;
 import tlc2.output.EC;
-import tlc2.tool.fp.FPSetFactory;
 
-import java.io.*;
-import java.util.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Runs TLC in a separate process.
@@ -30,29 +36,23 @@ final class TLCRunner {
     private static final List<String> JVM_ARGS = Arrays.asList(
         "-XX:+UseParallelGC",
         "-Dfile.encoding=UTF-8",
-        "-Dtlc2.tool.fp.FPSet.impl=" + FPSetFactory.getImplementationDefault(),
         "-DTLA-Library=/opt/tlaplus/lib/tlaplus-monitor-0.1-jar-with-dependencies.jar"
     );
 
     private Process process;
-    private StreamPump stdOut;
-    private StreamPump stdErr;
+    private CompletableFuture<Void> stdOut;
 
     /**
      * Starts the TLC process.
+     * <p>
+     * The child's standard error is inherited from the monitor, and its standard output is pumped to the
+     * monitor's standard output a line at a time.
      */
-    void start(Collection<String> args, Map<String, String> env) throws IOException {
-        final ProcessBuilder processBuilder = createProcess(args, env);
+    void start(Collection<String> jvmArgs, Collection<String> args, Map<String, String> env) throws IOException {
+        final ProcessBuilder processBuilder = createProcess(jvmArgs, args, env);
+        processBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
         process = processBuilder.start();
-
-        final BufferedInputStream stdOutReader = new BufferedInputStream(process.getInputStream());
-        final BufferedInputStream stdErrReader = new BufferedInputStream(process.getErrorStream());
-
-        stdOut = new StreamPump(stdOutReader, System.out);
-        stdErr = new StreamPump(stdErrReader, System.err);
-
-        stdOut.start();
-        stdErr.start();
+        stdOut = OutputPump.start(process.getInputStream(), System.out::println);
     }
 
     /**
@@ -63,28 +63,19 @@ final class TLCRunner {
     int join() {
         try {
             process.waitFor();
+            stdOut.get();
             return process.exitValue();
         } catch (final InterruptedException ie) {
             System.out.println("TLC process was interrupted: " + ie.getMessage());
-        } finally {
-            stdOut.stop();
-            stdErr.stop();
+            process.destroy();
+        } catch (final ExecutionException e) {
+            return process.exitValue();
         }
         return EC.ExitStatus.ERROR_SYSTEM;
     }
 
-    private ProcessBuilder createProcess(Collection<String> args, Map<String, String> env) {
-        final boolean isWindows = System.getProperty("os.name").toLowerCase().startsWith("windows");
-        final String jvm = System.getProperty("java.home")
-            + File.separator
-            + "bin"
-            + File.separator
-            + "java"
-            + (isWindows ? ".exe" : "");
-        final List<String> command = new ArrayList<String>();
-        command.add(jvm);
-        command.addAll(JVM_ARGS);
-        command.add(TLC_CLASS);
+    private ProcessBuilder createProcess(Collection<String> jvmArgs, Collection<String> args, Map<String, String> env) {
+        final List<String> command = command(TLC_CLASS, jvmArgs);
         command.addAll(args);
 
         final ProcessBuilder processBuilder = new ProcessBuilder(command);
@@ -92,50 +83,34 @@ final class TLCRunner {
         return processBuilder;
     }
 
+    /**
+     * Returns the command for running the given main class in a child JVM.
+     *
+     * @param mainClass the main class to run
+     * @param jvmArgs   additional JVM arguments
+     * @return the child JVM command
+     */
+    static List<String> command(String mainClass, Collection<String> jvmArgs) {
+        final List<String> command = new ArrayList<String>();
+        command.add(jvm());
+        command.addAll(JVM_ARGS);
+        command.addAll(jvmArgs);
+        command.add(mainClass);
+        return command;
+    }
 
-    private static class StreamPump implements Runnable {
-        private static final int WAIT_SLEEP = 125;
-
-        private final InputStream inputStream;
-        private final OutputStream outputStream;
-
-        private volatile boolean shouldStop;
-
-        StreamPump(final InputStream is, final OutputStream os) {
-            this.inputStream = is;
-            this.outputStream = os;
-            this.shouldStop = false;
-        }
-
-        void start() {
-            new Thread(this).start();
-        }
-
-        public void run() {
-            try {
-                while (!shouldStop) {
-                    while ((inputStream.available() > 0) && !shouldStop) {
-                        if (outputStream != null) {
-                            outputStream.write(inputStream.read());
-                        } else {
-                            inputStream.read();
-                        }
-                    }
-                    if (outputStream != null) {
-                        outputStream.flush();
-                    }
-
-                    try {
-                        Thread.sleep(WAIT_SLEEP);
-                    } catch (final Exception e) {
-                    }
-                }
-            } catch (final Exception e) {
-            }
-        }
-
-        void stop() {
-            shouldStop = true;
-        }
+    /**
+     * Returns the path to the java executable used to run child JVMs.
+     *
+     * @return the java executable path
+     */
+    static String jvm() {
+        final boolean isWindows = System.getProperty("os.name").toLowerCase().startsWith("windows");
+        return System.getProperty("java.home")
+            + File.separator
+            + "bin"
+            + File.separator
+            + "java"
+            + (isWindows ? ".exe" : "");
     }
 }
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tlc2.monitor;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import tlc2.TLC;
+import tlc2.TLCGlobals;
+import tlc2.output.EC;
+import tlc2.overrides.Alerts;
+import tlc2.overrides.Traces;
+import tlc2.tool.ModelChecker;
+import tlc2.tool.fp.FPSetConfiguration;
+import tlc2.tool.impl.FastTool;
+import tlc2.util.FP64;
+import tlc2.util.IStateWriter;
+import tlc2.util.RandomGenerator;
+import tlc2.value.RandomEnumerableValues;
+import util.FileUtil;
+import util.FilenameToStream;
+import util.SimpleFilenameToStream;
+import util.ToolIO;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Long-lived TLC worker process.
+ * <p>
+ * The worker reads window jobs from standard input, one JSON object per line, and runs TLC in-process for each
+ * job. Each job contains the TLC arguments and the environment that would otherwise be passed to a forked TLC
+ * process. The {@link Traces} and {@link Alerts} modules are reconfigured from the job environment before each
+ * run. When a job completes, the worker writes {@link #EXIT_MARKER} followed by the exit code to standard output.
+ * <p>
+ * The parsed spec is kept in a {@link SpecCache} between jobs, so only the first window checked by a worker pays
+ * for parsing and processing the spec. Setting {@link #SPEC_CACHE_ENV} to {@code false} in a job's environment
+ * parses the spec again for that job.
+ */
+public final class TLCWorker {
+    static final String EXIT_MARKER = "@!@!@TLCWorker exit ";
+    static final String ARGS_FIELD = "args";
+    static final String ENV_FIELD = "env";
+    static final String SPEC_CACHE_ENV = "TLC_WORKER_SPEC_CACHE";
+
+    private static final SpecCache SPEC_CACHE = new SpecCache();
+
+    /**
+     * Runs the TLC worker.
+     *
+     * @param args the worker arguments
+     */
+    public static void main(String[] args) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            int exitCode = run(mapper.readTree(line));
+            System.out.println(EXIT_MARKER + exitCode);
+            System.out.flush();
+        }
+
+        // TLC may leave non-daemon threads running, so exit explicitly once the monitor closes the pipe.
+        System.exit(0);
+    }
+
+    /**
+     * Runs a single window job.
+     *
+     * @param job the job to run
+     * @return the TLC exit code
+     */
+    private static int run(JsonNode job) {
+        List<String> args = new ArrayList<>();
+        for (JsonNode arg : job.get(ARGS_FIELD)) {
+            args.add(arg.asText());
+        }
+        Map<String, String> env = new HashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> fields = job.get(ENV_FIELD).fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            env.put(field.getKey(), field.getValue().asText());
+        }
+
+        try {
+            // Point the override modules at the job's source, partition and window.
+            Traces.configure(env);
+            Alerts.configure(env);
+
+            // Clear global state left over from the previous run.
+            ToolIO.reset();
+            TLCGlobals.mainChecker = null;
+            TLCGlobals.simulator = null;
+            TLCGlobals.setNumWorkers(1);
+
+            TLC tlc = new TLC();
+            if (!tlc.handleParameters(args.toArray(new String[0]))) {
+                return EC.ExitStatus.ERROR;
+            }
+            String dir = FileUtil.parseDirname(tlc.getMainFile());
+            FilenameToStream resolver = !dir.isEmpty() ? new SimpleFilenameToStream(dir) : new SimpleFilenameToStream();
+            tlc.setResolver(resolver);
+            if (!Boolean.parseBoolean(env.getOrDefault(SPEC_CACHE_ENV, "true"))) {
+                SPEC_CACHE.clear();
+                return EC.ExitStatus.errorConstantToExitStatus(tlc.process());
+            }
+            return EC.ExitStatus.errorConstantToExitStatus(check(tlc, resolver));
+        } catch (Throwable t) {
+            t.printStackTrace();
+            return EC.ExitStatus.ERROR_SYSTEM;
+        } finally {
+            TLCGlobals.mainChecker = null;
+            TLCGlobals.simulator = null;
+        }
+    }
+
+    /**
+     * Model checks the spec configured by the given parameters using the cached tool.
+     * <p>
+     * This mirrors the breadth-first model checking path of {@link TLC#process()}, substituting the cached tool for
+     * the freshly parsed one. Simulation, depth-first checking and recovery from a checkpoint, which the
+     * monitor never requests, are delegated to {@link TLC#process()}.
+     *
+     * @param tlc      the TLC instance holding the job's parameters
+     * @param resolver the resolver used to locate modules
+     * @return the TLC error code
+     */
+    private static int check(TLC tlc, FilenameToStream resolver) throws Exception {
+        String fromChkpt = getField(tlc, "fromChkpt");
+        Object runMode = getField(tlc, "runMode");
+        if (fromChkpt != null || TLCGlobals.DFIDMax != -1 || !"MODEL_CHECK".equals(runMode.toString())) {
+            return tlc.process();
+        }
+
+        int fpIndex = getField(tlc, "fpIndex");
+        FP64.Init(fpIndex);
+        boolean noSeed = getField(tlc, "noSeed");
+        long seed = noSeed ? new RandomGenerator().nextLong() : (Long) getField(tlc, "seed");
+        RandomEnumerableValues.setSeed(seed);
+
+        String mainFile = getField(tlc, "mainFile");
+        String configFile = getField(tlc, "configFile");
+        String metadir = getField(tlc, "metadir");
+        IStateWriter stateWriter = getField(tlc, "stateWriter");
+        boolean deadlock = getField(tlc, "deadlock");
+        FPSetConfiguration fpSetConfiguration = getField(tlc, "fpSetConfiguration");
+        long startTime = getField(tlc, "startTime");
+
+        FastTool tool = SPEC_CACHE.getTool(mainFile, configFile, resolver);
+        ModelChecker checker = new ModelChecker(
+            tool, metadir, stateWriter, deadlock, null, fpSetConfiguration, startTime);
+        TLCGlobals.mainChecker = checker;
+        return checker.modelCheck();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T getField(TLC tlc, String name) throws ReflectiveOperationException {
+        Field field = TLC.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return (T) field.get(tlc);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tlc2.monitor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import tlc2.monitor.util.ConsoleLogger;
+import tlc2.monitor.util.Logger;
+import tlc2.output.EC;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Pool of warm {@link TLCWorker} processes.
+ * <p>
+ * Rather than forking a new JVM for every window, the pool keeps a fixed number of worker processes running and
+ * hands each window job to an idle worker. Workers pay JVM startup and class loading once, and stay warm across
+ * windows. A worker that dies is replaced before it is returned to the pool.
+ */
+final class TLCWorkerPool {
+    private static final Logger LOGGER = new ConsoleLogger();
+    private static final String WORKER_CLASS = TLCWorker.class.getName();
+
+    private final List<String> jvmArgs;
+    private final Map<String, String> env;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final List<Worker> workers = new ArrayList<>();
+    private final BlockingQueue<Worker> idleWorkers = new LinkedBlockingQueue<>();
+    private volatile boolean closed;
+
+    TLCWorkerPool(int size, List<String> jvmArgs, Map<String, String> env) throws IOException {
+        this.jvmArgs = jvmArgs;
+        this.env = env;
+        for (int i = 0; i < size; i++) {
+            Worker worker = new Worker(jvmArgs, env);
+            synchronized (workers) {
+                workers.add(worker);
+            }
+            idleWorkers.add(worker);
+        }
+    }
+
+    /**
+     * Runs TLC on an idle worker, waiting for a worker to become available if necessary.
+     *
+     * @param args the TLC arguments
+     * @param env  the job environment
+     * @return the TLC exit code
+     */
+    int run(List<String> args, Map<String, String> env) throws IOException, InterruptedException {
+        ObjectNode job = mapper.createObjectNode();
+        ArrayNode argsNode = job.putArray(TLCWorker.ARGS_FIELD);
+        args.forEach(argsNode::add);
+        ObjectNode envNode = job.putObject(TLCWorker.ENV_FIELD);
+        env.forEach(envNode::put);
+
+        Worker worker = idleWorkers.take();
+        try {
+            return worker.run(mapper.writeValueAsString(job));
+        } finally {
+            release(worker);
+        }
+    }
+
+    /**
+     * Returns a worker to the pool, replacing it if the worker process has exited.
+     *
+     * @param worker the worker to release
+     */
+    private void release(Worker worker) throws IOException {
+        if (closed) {
+            worker.close();
+            return;
+        }
+        if (worker.isAlive()) {
+            idleWorkers.add(worker);
+            return;
+        }
+
+        LOGGER.log("TLC worker exited unexpectedly; starting a new worker");
+        Worker replacement = new Worker(jvmArgs, env);
+        synchronized (workers) {
+            workers.remove(worker);
+            workers.add(replacement);
+        }
+        idleWorkers.add(replacement);
+    }
+
+    /**
+     * Stops all worker processes.
+     */
+    void close() {
+        closed = true;
+        synchronized (workers) {
+            workers.forEach(Worker::close);
+            workers.clear();
+        }
+    }
+
+    /**
+     * Single worker process.
+     */
+    private static final class Worker {
+        private final Process process;
+        private final BufferedWriter stdIn;
+        private volatile CompletableFuture<Integer> exitCode;
+        private volatile boolean closed;
+
+        Worker(List<String> jvmArgs, Map<String, String> env) throws IOException {
+            ProcessBuilder processBuilder = new ProcessBuilder(TLCRunner.command(WORKER_CLASS, jvmArgs));
+            processBuilder.environment().putAll(env);
+            processBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
+            process = processBuilder.start();
+            stdIn = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            OutputPump.start(process.getInputStream(), this::handleOutput)
+                .whenComplete((result, error) -> complete(EC.ExitStatus.ERROR_SYSTEM));
+        }
+
+        /**
+         * Sends a job to the worker and waits for it to complete.
+         *
+         * @param job the JSON encoded job
+         * @return the TLC exit code
+         */
+        int run(String job) throws IOException, InterruptedException {
+            CompletableFuture<Integer> future = new CompletableFuture<>();
+            exitCode = future;
+            if (!process.isAlive()) {
+                return EC.ExitStatus.ERROR_SYSTEM;
+            }
+            stdIn.write(job);
+            stdIn.newLine();
+            stdIn.flush();
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                // The job is still running, so the worker cannot be reused.
+                close();
+                throw e;
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+
+        /**
+         * Forwards a line of worker output to the monitor's standard output, completing the job on exit markers.
+         *
+         * @param line the line of output
+         */
+        private void handleOutput(String line) {
+            int marker = line.indexOf(TLCWorker.EXIT_MARKER);
+            if (marker < 0) {
+                System.out.println(line);
+                return;
+            }
+            if (marker > 0) {
+                System.out.println(line.substring(0, marker));
+            }
+            try {
+                complete(Integer.parseInt(line.substring(marker + TLCWorker.EXIT_MARKER.length()).trim()));
+            } catch (NumberFormatException e) {
+                complete(EC.ExitStatus.ERROR_SYSTEM);
+            }
+        }
+
+        private void complete(int code) {
+            CompletableFuture<Integer> future = exitCode;
+            if (future != null) {
+                future.complete(code);
+            }
+        }
+
+        boolean isAlive() {
+            return !closed && process.isAlive();
+        }
+
+        void close() {
+            closed = true;
+            process.destroy();
+        }
+    }
+}
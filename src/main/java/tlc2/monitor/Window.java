@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tlc2.monitor;
+
+/**
+ * Window within a partition.
+ * <p>
+ * Windows are bounded either by record timestamps or by record indexes. The start of a window is inclusive and
+ * the end of a window is exclusive.
+ */
+final class Window {
+
+    /**
+     * Window type.
+     */
+    enum Type {
+        /**
+         * Window bounded by record timestamps in milliseconds.
+         */
+        TIME,
+
+        /**
+         * Window bounded by record indexes.
+         */
+        INDEX,
+    }
+
+    private final Type type;
+    private final long start;
+    private final long end;
+
+    Window(Type type, long start, long end) {
+        this.type = type;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Returns the window type.
+     *
+     * @return the window type
+     */
+    Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the window start.
+     *
+     * @return the window start time in milliseconds or start index, depending on the window type
+     */
+    long getStart() {
+        return start;
+    }
+
+    /**
+     * Returns the window end.
+     *
+     * @return the window end time in milliseconds or end index, depending on the window type
+     */
+    long getEnd() {
+        return end;
+    }
+
+    /**
+     * Returns a window spanning both this window and the given window.
+     *
+     * @param window the window with which to merge this window
+     * @return the merged window
+     */
+    Window merge(Window window) {
+        if (window.type != type) {
+            throw new IllegalArgumentException("Cannot merge windows of different types");
+        }
+        return new Window(type, Math.min(start, window.start), Math.max(end, window.end));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Window(type=%s, start=%d, end=%d)", type, start, end);
+    }
+}
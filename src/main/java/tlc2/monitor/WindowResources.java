@@ -0,0 +1,124 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tlc2.monitor;
+
+import tlc2.tool.fp.FPSetFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * JVM and TLC resources with which to check a window.
+ */
+final class WindowResources {
+    private final long heap;
+    private final String fpSet;
+    private final long fpMem;
+    private final int workers;
+
+    WindowResources(long heap, String fpSet, long fpMem, int workers) {
+        this.heap = heap;
+        this.fpSet = fpSet;
+        this.fpMem = fpMem;
+        this.workers = workers;
+    }
+
+    /**
+     * Returns the maximum heap size.
+     *
+     * @return the maximum heap size in megabytes
+     */
+    long getHeap() {
+        return heap;
+    }
+
+    /**
+     * Returns the fingerprint set implementation.
+     *
+     * @return the fingerprint set implementation class name
+     */
+    String getFPSet() {
+        return fpSet;
+    }
+
+    /**
+     * Returns the memory reserved for fingerprints.
+     *
+     * @return the fingerprint set memory in megabytes
+     */
+    long getFPMem() {
+        return fpMem;
+    }
+
+    /**
+     * Returns the number of TLC workers.
+     *
+     * @return the number of TLC worker threads
+     */
+    int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Returns whether the fingerprint set is allocated on the heap.
+     *
+     * @return whether fingerprints are stored on the heap rather than in direct memory
+     */
+    boolean isOnHeap() {
+        return FPSetFactory.allocatesOnHeap(fpSet);
+    }
+
+    /**
+     * Returns the JVM arguments with which to launch a TLC process.
+     *
+     * @return the JVM arguments
+     */
+    List<String> getJvmArgs() {
+        List<String> args = new ArrayList<>();
+        args.add(String.format("-Xmx%dm", heap));
+        args.add(String.format("-D%s=%s", FPSetFactory.IMPL_PROPERTY, fpSet));
+        if (!isOnHeap()) {
+            args.add(String.format("-XX:MaxDirectMemorySize=%dm", fpMem));
+        }
+        return args;
+    }
+
+    /**
+     * Returns the TLC arguments with which to check a window.
+     * <p>
+     * Off-heap fingerprint sets use all of the JVM's direct memory, so the fingerprint set memory is only passed
+     * to TLC, as a fraction of the heap, for fingerprint sets allocated on the heap.
+     *
+     * @return the TLC arguments
+     */
+    List<String> getArgs() {
+        List<String> args = new ArrayList<>();
+        args.add("-workers");
+        args.add(String.valueOf(workers));
+        if (isOnHeap()) {
+            args.add("-fpmem");
+            args.add(String.format(Locale.ROOT, "%.4f", Math.min((double) fpMem / heap, 1.0)));
+        }
+        return args;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("heap=%dm, fpset=%s, fpmem=%dm, workers=%d",
+            heap, fpSet.substring(fpSet.lastIndexOf('.') + 1), fpMem, workers);
+    }
+}
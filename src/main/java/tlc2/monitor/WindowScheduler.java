@@ -0,0 +1,220 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tlc2.monitor;
+
+import tlc2.monitor.util.ConsoleLogger;
+import tlc2.monitor.util.Logger;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Schedules the windows of a single partition.
+ * <p>
+ * Windows are queued and run by dispatch tasks on an executor shared by all partitions, so idle partitions hold no
+ * threads. At most a fixed number of dispatch tasks run per partition, bounding the number of windows checked
+ * concurrently for the partition. Each window must also acquire a permit from a semaphore shared by all
+ * partitions, bounding the number of windows checked concurrently by the monitor. When the queue is full, new
+ * windows are handled according to the configured {@link OverrunPolicy}.
+ */
+final class WindowScheduler {
+    private static final Logger LOGGER = new ConsoleLogger();
+
+    private final String name;
+    private final int concurrency;
+    private final int queueSize;
+    private final OverrunPolicy policy;
+    private final Semaphore permits;
+    private final Executor executor;
+    private final Runner runner;
+    private final Deque<Window> queue = new ArrayDeque<>();
+    private final Set<Thread> dispatchers = new HashSet<>();
+    private int dispatching;
+    private int running;
+    private long skipped;
+    private long coalesced;
+    private boolean closed;
+
+    WindowScheduler(
+        String name,
+        int concurrency,
+        int queueSize,
+        OverrunPolicy policy,
+        Semaphore permits,
+        Executor executor,
+        Runner runner) {
+        this.name = name;
+        this.concurrency = concurrency;
+        this.queueSize = queueSize;
+        this.policy = policy;
+        this.permits = permits;
+        this.executor = executor;
+        this.runner = runner;
+    }
+
+    /**
+     * Submits a window to be checked.
+     * <p>
+     * If the queue is full, the window is handled according to the overrun policy.
+     *
+     * @param window the window to submit
+     * @return whether the window was scheduled, either on its own or merged into a queued window
+     */
+    synchronized boolean submit(Window window) throws InterruptedException {
+        if (queue.size() >= queueSize) {
+            switch (policy) {
+                case WAIT:
+                    LOGGER.log("Window queue for %s is full; waiting to schedule %s", name, window);
+                    while (queue.size() >= queueSize && !closed) {
+                        wait();
+                    }
+                    if (closed) {
+                        return false;
+                    }
+                    break;
+                case COALESCE:
+                    Window last = queue.pollLast();
+                    queue.addLast(last.merge(window));
+                    coalesced++;
+                    LOGGER.log("Window queue for %s is full; coalesced %s into %s (%d coalesced)",
+                        name, window, queue.peekLast(), coalesced);
+                    return true;
+                case SKIP:
+                    skipped++;
+                    LOGGER.log("Window queue for %s is full; skipped %s (%d skipped)", name, window, skipped);
+                    return false;
+            }
+        }
+        queue.addLast(window);
+        LOGGER.log("Scheduled %s for %s (queued=%d, running=%d)", window, name, queue.size(), running);
+        notifyAll();
+        dispatch();
+        return true;
+    }
+
+    /**
+     * Runs a window synchronously, subject to the monitor-wide concurrency limit.
+     *
+     * @param window the window to run
+     * @return the TLC exit code
+     */
+    int run(Window window) throws Exception {
+        permits.acquire();
+        try {
+            return runner.run(window);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Stops the scheduler, discarding any queued windows.
+     */
+    synchronized void close() {
+        closed = true;
+        queue.clear();
+        notifyAll();
+        dispatchers.forEach(Thread::interrupt);
+    }
+
+    /**
+     * Starts a dispatch task if queued windows are not already awaiting one and the partition's concurrency allows.
+     */
+    private void dispatch() {
+        if (dispatching < concurrency && dispatching - running < queue.size()) {
+            dispatching++;
+            executor.execute(this::drain);
+        }
+    }
+
+    /**
+     * Takes queued windows and runs them until the queue is empty or the scheduler is closed.
+     */
+    private void drain() {
+        Thread thread = Thread.currentThread();
+        Window window;
+        synchronized (this) {
+            window = next(thread);
+        }
+        while (window != null) {
+            boolean interrupted = false;
+            try {
+                int exitCode = run(window);
+                LOGGER.log("Finished checking %s for %s with exit code %d", window, name, exitCode);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (Exception e) {
+                LOGGER.log("An error occurred while checking %s for %s", window, name);
+                e.printStackTrace();
+            } finally {
+                synchronized (this) {
+                    running--;
+                    window = interrupted ? exit(thread) : next(thread);
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the next queued window for the given dispatch thread, or releases the thread if there is none.
+     *
+     * @param thread the dispatch thread
+     * @return the next window, or {@code null} if the dispatch task must exit
+     */
+    private Window next(Thread thread) {
+        if (closed || queue.isEmpty()) {
+            return exit(thread);
+        }
+        dispatchers.add(thread);
+        running++;
+        notifyAll();
+        return queue.pollFirst();
+    }
+
+    /**
+     * Releases the given dispatch thread back to the shared executor.
+     * <p>
+     * The thread is released while holding the scheduler's lock, so {@link #close()} cannot interrupt it once it
+     * runs another partition's windows, and an interrupt that raced with the window's exit is cleared.
+     *
+     * @param thread the dispatch thread
+     * @return {@code null}
+     */
+    private Window exit(Thread thread) {
+        dispatchers.remove(thread);
+        dispatching--;
+        Thread.interrupted();
+        return null;
+    }
+
+    /**
+     * Runs a single window.
+     */
+    @FunctionalInterface
+    interface Runner {
+        /**
+         * Checks the given window.
+         *
+         * @param window the window to check
+         * @return the TLC exit code
+         */
+        int run(Window window) throws Exception;
+    }
+}
@@ -40,7 +40,7 @@ public class FileSink implements Sink {
         }
 
         this.uri = uri;
-        this.writer = new FileWriter(new File(sink.getPath()));
+        this.writer = new FileWriter(new File(sink.getPath()), true);
     }
 
     @Override
@@ -49,8 +49,9 @@ public class FileSink implements Sink {
     }
 
     @Override
-    public void produce(IValue value) throws IOException {
+    public synchronized void produce(IValue value) throws IOException {
         writer.write(JsonUtils.getNode(value).toString() + "\n");
+        writer.flush();
     }
 
     @Override
@@ -20,27 +20,87 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.JsonNodeType;
 import tlc2.overrides.JsonUtils;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 /**
  * File partition.
+ * <p>
+ * The file is memory-mapped, and records are parsed only when they are read. The first time the partition is read,
+ * the file is scanned for line breaks to build an index of the offset at which each record starts, along with a
+ * sparse index of the timestamp of every 256th record. Records are assumed to be ordered by timestamp, so a
+ * timestamp is located by bisecting the sparse index and then the records of a single stride. The index is saved
+ * to a hidden sidecar file next to the partition file, keyed by the file's identity rather than its modification
+ * time, so an index saved before lines were appended is extended from where it ends rather than rebuilt. A
+ * followed file's index is saved again as the file grows. Heap use is therefore bounded by the primitive indexes
+ * and the records in use rather than by the size of the file.
+ * <p>
+ * If the partition follows the file, lines appended to the file are indexed incrementally once they are complete.
+ * Record indexes must be the same in every process reading the partition, including TLC child processes and
+ * restarted monitors. When the file is rotated, the renamed file is read by its file key until its end, and the
+ * partition then continues with the new file at the path, numbering its records after those of the rotated file.
+ * When the file is truncated in place, the partition continues with the lines written after the truncation. The
+ * chain of files is recorded in the sidecar, so every process numbers the records of rotated files the same way.
  */
 public class FilePartition implements Partition {
+    static final String INDEX_SUFFIX = ".idx";
+    private static final int INDEX_MAGIC = 0x544c4349;
+    private static final int INDEX_VERSION = 4;
+    private static final int INDEX_HEADER_SIZE = 28;
+    private static final int STRIDE = 256;
+    private static final int SEGMENT_SIZE = 1 << 30;
+    private static final long UNPARSED = Long.MIN_VALUE;
+
     private final int id;
     private final File file;
-    private final List<TimestampedNode> nodes;
+    private final String timestampField;
+    private final SimpleDateFormat timestampFormat;
+    private final boolean follow;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final RecordCache cache = new RecordCache();
+    private final List<Chunk> chunks = new ArrayList<>();
+    private long[] offsets = new long[0];
+    private long[] timestamps = new long[0];
+    private long[] sparse = new long[0];
+    private int count;
+    private int savedCount;
+    private int savedChunks;
+    private boolean keepSaved;
+    private boolean indexed;
+    private boolean closed;
+    private volatile boolean changed = true;
 
-    FilePartition(int id, File file, String timestampField, SimpleDateFormat timestampFormat) throws IOException {
+    FilePartition(int id, File file, String timestampField, SimpleDateFormat timestampFormat, boolean follow) {
         this.id = id;
         this.file = file;
-        this.nodes = parseFile(file, timestampField, timestampFormat);
+        this.timestampField = timestampField;
+        this.timestampFormat = timestampFormat;
+        this.follow = follow;
     }
 
     @Override
@@ -48,24 +108,137 @@ public class FilePartition implements Partition {
         return id;
     }
 
+    /**
+     * Notifies the partition that its file has changed, so the file is indexed again before the partition is next
+     * read. This has no effect unless the partition follows its file.
+     */
+    void invalidate() {
+        changed = true;
+    }
+
     @Override
     public long indexOf(long timestamp) throws IOException {
-        for (int i = 0; i < nodes.size(); i++) {
-            TimestampedNode node = nodes.get(i);
-            if (node.timestamp >= timestamp) {
-                return i + 1;
+        int count;
+        long[] sparse;
+        synchronized (this) {
+            count = index();
+            sparse = this.sparse;
+        }
+
+        // Find the first stride whose first record is not before the timestamp. The record is either the first
+        // record of that stride or one of the records of the preceding stride.
+        int low = 0;
+        int high = (count + STRIDE - 1) / STRIDE;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sparse[mid] < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
             }
         }
-        return nodes.size();
+        if (low == 0) {
+            return count > 0 ? 1 : 0;
+        }
+
+        high = Math.min(low * STRIDE, count);
+        low = (low - 1) * STRIDE + 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamp(mid) < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low < count ? low + 1 : count;
     }
 
     @Override
     public Record get(long index) throws IOException {
-        if (index > nodes.size()) {
+        if (index < 1 || index > index()) {
             return null;
         }
-        TimestampedNode node = nodes.get((int) index - 1);
-        return new Record(index, JsonUtils.getValue(node.node), node.timestamp);
+        Record record = cache.get(index);
+        if (record != null) {
+            return record;
+        }
+        int line = (int) index - 1;
+        byte[] bytes = readLine(line);
+        JsonNode node = parse(bytes);
+        long timestamp = getTimestamp(node);
+        setTimestamp(line, timestamp);
+        return cache.put(new Record(index, JsonUtils.getValue(node), timestamp), bytes.length);
+    }
+
+    @Override
+    public List<Record> getRange(long from, long to) throws IOException {
+        // Records are parsed and decoded in parallel.
+        long last = Math.min(to, index());
+        try {
+            return LongStream.rangeClosed(Math.max(from, 1), last)
+                .parallel()
+                .mapToObj(index -> {
+                    try {
+                        return get(index);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Closes the partition's files and drops their mappings, which are unmapped once they are garbage collected.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // An unfollowed file's index includes its unterminated last line, which is not saved.
+        if (follow && indexed && count > savedCount) {
+            saveIndex(getIndexFile());
+        }
+        for (Chunk chunk : chunks) {
+            if (chunk.channel != null) {
+                chunk.channel.close();
+                chunk.channel = null;
+            }
+            chunk.segments = new MappedByteBuffer[0];
+            chunk.unavailable = true;
+        }
+    }
+
+    /**
+     * Returns the key of the file at the partition's path.
+     *
+     * @return the key of the file the partition is reading
+     */
+    synchronized String getFileKey() throws IOException {
+        index();
+        return last().fileKey;
+    }
+
+    /**
+     * Returns the keys of the files the partition read before they were rotated away from its path.
+     *
+     * @return the keys of the partition's rotated files
+     */
+    synchronized Set<String> getRotatedFileKeys() throws IOException {
+        index();
+        Set<String> keys = new HashSet<>();
+        for (Chunk chunk : chunks.subList(0, chunks.size() - 1)) {
+            if (!chunk.unavailable) {
+                keys.add(chunk.fileKey);
+            }
+        }
+        keys.remove(last().fileKey);
+        return keys;
     }
 
     @Override
@@ -73,44 +246,648 @@ public class FilePartition implements Partition {
         return file.getAbsolutePath();
     }
 
-    private static List<TimestampedNode> parseFile(File file, String timestampField, SimpleDateFormat timestampFormat) throws IOException {
-        List<TimestampedNode> nodes = new CopyOnWriteArrayList<>();
-        ObjectMapper mapper = new ObjectMapper();
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                JsonNode node = mapper.readTree(line);
-                if (node.getNodeType() != JsonNodeType.OBJECT) {
-                    throw new IOException("Failed to parse JSON: not an object");
+    /**
+     * Maps the file and loads or builds the index of record offsets, if it has not already been done. If the
+     * partition follows its file and the file has changed, lines appended since the file was last indexed are
+     * indexed, and a rotated file is read to its end before the partition continues with the new file.
+     *
+     * @return the number of records in the partition
+     */
+    private synchronized int index() throws IOException {
+        if (closed) {
+            throw new IOException(String.format("%s is closed", file));
+        }
+        if (!indexed) {
+            File indexFile = getIndexFile();
+            Chunk current = open(0);
+            if (!loadIndex(indexFile, current)) {
+                chunks.add(current);
+            }
+            for (int i = 0; i < chunks.size(); i++) {
+                Chunk chunk = chunks.get(i);
+                scan(chunk);
+                if (i < chunks.size() - 1 || !follow) {
+                    finish(chunk);
                 }
+            }
+            if (!keepSaved && (count > savedCount || chunks.size() != savedChunks)) {
+                saveIndex(indexFile);
+            }
+            indexed = true;
+            changed = false;
+        } else if (follow && changed) {
+            changed = false;
+            try {
+                update();
+            } catch (IOException e) {
+                // Keep failing on every read rather than serve a stale index.
+                changed = true;
+                throw e;
+            }
+        }
+        return count;
+    }
 
-                long timestamp;
-                JsonNode timestampValue = node.get(timestampField);
-                if (timestampValue.getNodeType() == JsonNodeType.NUMBER) {
-                    timestamp = timestampValue.asLong();
-                } else {
-                    if (timestampFormat == null) {
-                        throw new IOException("Failed to parse JSON timestamp: no format specified");
-                    }
-                    try {
-                        timestamp = timestampFormat.parse(timestampValue.asText()).getTime();
-                    } catch (ParseException e) {
-                        throw new IOException("Failed to parse JSON timestamp", e);
+    /**
+     * Returns the file the partition is reading.
+     *
+     * @return the last of the partition's files
+     */
+    private Chunk last() {
+        return chunks.get(chunks.size() - 1);
+    }
+
+    /**
+     * Opens and maps the file at the partition's path.
+     *
+     * @param base the position of the file in the partition
+     * @return the mapped file
+     */
+    private Chunk open(long base) throws IOException {
+        Path path = file.toPath();
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            Chunk chunk = new Chunk(base, getFileKey(path), path.toString());
+            chunk.channel = channel;
+            map(chunk, channel.size());
+            if (!follow) {
+                chunk.channel = null;
+                channel.close();
+            }
+            return chunk;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Maps the given file up to the given size. Segments that are already fully mapped are reused.
+     *
+     * @param chunk the file to map
+     * @param size  the size of the file
+     */
+    private static void map(Chunk chunk, long size) throws IOException {
+        MappedByteBuffer[] segments = Arrays.copyOf(chunk.segments, (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE));
+        for (int i = 0; i < segments.length; i++) {
+            long position = (long) i * SEGMENT_SIZE;
+            long length = Math.min(SEGMENT_SIZE, size - position);
+            if (segments[i] == null || segments[i].limit() != length) {
+                segments[i] = chunk.channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            }
+        }
+        chunk.segments = segments;
+        chunk.size = size;
+    }
+
+    /**
+     * Indexes the lines appended to the followed file, and continues with the new file if the file was rotated.
+     * <p>
+     * The index is saved when the partition moves to a new file, so processes that open the partition later
+     * number the records of the rotated files as this process did.
+     */
+    private void update() throws IOException {
+        Chunk chunk = last();
+        long size = chunk.channel.size();
+        if (size < chunk.size) {
+            truncate(chunk);
+        } else {
+            if (size > chunk.size) {
+                map(chunk, size);
+                scan(chunk);
+            }
+
+            // Until a new file is created at the path, the renamed file is still read by its open channel.
+            try {
+                if (!getFileKey(file.toPath()).equals(chunk.fileKey)) {
+                    rotate(chunk);
+                }
+            } catch (NoSuchFileException e) {
+                // The file was renamed, but the new file has not been created yet.
+            }
+        }
+
+        // Saving rewrites the whole index, so the index is saved each time it has grown by a quarter.
+        if (chunks.size() != savedChunks || count - savedCount >= Math.max(STRIDE, savedCount / 4)) {
+            saveIndex(getIndexFile());
+        }
+    }
+
+    /**
+     * Reads the renamed file to its end, including an unterminated last line, and continues with the new file at
+     * the partition's path.
+     *
+     * @param chunk the rotated file
+     */
+    private void rotate(Chunk chunk) throws IOException {
+        map(chunk, chunk.channel.size());
+        Chunk next = open(chunk.base + chunk.size);
+        scan(chunk);
+        finish(chunk);
+        chunk.channel.close();
+        chunk.channel = null;
+        chunk.path = locate(chunk.fileKey);
+        chunks.add(next);
+        scan(next);
+    }
+
+    /**
+     * Continues with the content written to the file after it was truncated in place. The records indexed before
+     * the truncation keep their indexes, but can no longer be read.
+     *
+     * @param chunk the truncated file
+     */
+    private void truncate(Chunk chunk) throws IOException {
+        Chunk next = open(chunk.base + chunk.size);
+        chunk.channel.close();
+        chunk.channel = null;
+        chunk.segments = new MappedByteBuffer[0];
+        chunk.scanned = chunk.size;
+        chunk.unavailable = true;
+        chunks.add(next);
+        scan(next);
+    }
+
+    /**
+     * Returns the path of the file with the given key in the partition file's directory, where rotated files are
+     * usually renamed to.
+     *
+     * @param fileKey the file key
+     * @return the path of the file, or {@code null} if no file in the directory has the key
+     */
+    private String locate(String fileKey) {
+        File[] files = file.getAbsoluteFile().getParentFile().listFiles();
+        if (files != null) {
+            for (File f : files) {
+                try {
+                    if (f.isFile() && getFileKey(f.toPath()).equals(fileKey)) {
+                        return f.getPath();
                     }
+                } catch (IOException e) {
+                    // The file was removed while the directory was listed.
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a key identifying the file at the given path, so a file can be recognized after it is renamed, and
+     * an index saved for a file that has since been replaced at the same path is not reused.
+     *
+     * @param path the file path
+     * @return the file key, which is empty if the platform does not identify files
+     */
+    static String getFileKey(Path path) throws IOException {
+        Object fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        return fileKey != null ? fileKey.toString() : "";
+    }
+
+    /**
+     * Indexes the complete lines in the given file that have not yet been indexed.
+     *
+     * @param chunk the file to scan
+     */
+    private void scan(Chunk chunk) throws IOException {
+        for (long position = chunk.scanned; position < chunk.size; position++) {
+            byte b = byteAt(chunk.segments, position);
+            if (b == '\n') {
+                if (!chunk.blank) {
+                    add(chunk.base + chunk.start);
+                }
+                chunk.start = position + 1;
+                chunk.scanned = position + 1;
+                chunk.blank = true;
+            } else if (b != '\r' && b != ' ' && b != '\t') {
+                chunk.blank = false;
+            }
+        }
+        chunk.scanned = chunk.size;
+    }
+
+    /**
+     * Indexes the final line of the given file, even if it is not terminated by a line break.
+     *
+     * @param chunk the file to finish
+     */
+    private void finish(Chunk chunk) throws IOException {
+        if (!chunk.blank) {
+            add(chunk.base + chunk.start);
+        }
+        chunk.start = chunk.size;
+        chunk.blank = true;
+    }
+
+    /**
+     * Adds a record to the index, reading its timestamp into the sparse index if it is the first record of a stride.
+     *
+     * @param position the position of the record in the partition
+     */
+    private void add(long position) throws IOException {
+        if (count == offsets.length) {
+            grow(Math.max(1024, count * 2));
+        }
+        offsets[count] = position;
+        if (count % STRIDE == 0) {
+            long timestamp = getTimestamp(parse(readLine(count)));
+            sparse[count / STRIDE] = timestamp;
+            timestamps[count] = timestamp;
+        }
+        count++;
+    }
+
+    /**
+     * Grows the index to the given number of records.
+     *
+     * @param capacity the number of records the index can hold
+     */
+    private void grow(int capacity) {
+        int length = timestamps.length;
+        offsets = Arrays.copyOf(offsets, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        Arrays.fill(timestamps, length, capacity, UNPARSED);
+        sparse = Arrays.copyOf(sparse, (capacity + STRIDE - 1) / STRIDE);
+    }
+
+    /**
+     * Returns the sidecar file in which the index is saved.
+     *
+     * @return the index file
+     */
+    private File getIndexFile() {
+        return new File(file.getAbsoluteFile().getParentFile(), "." + file.getName() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Returns a key identifying how record timestamps are read, so an index built with a different timestamp field
+     * or format is not reused.
+     *
+     * @return the timestamp key
+     */
+    private long getTimestampKey() {
+        String format = timestampFormat != null ? timestampFormat.toPattern() : "";
+        return ((long) timestampField.hashCode() << 32) | (format.hashCode() & 0xffffffffL);
+    }
+
+    /**
+     * Loads the index from the sidecar file, if it exists and was saved for the same files. The file may have grown
+     * since the index was saved, in which case the lines after the saved index's tail are indexed by the next scan.
+     * <p>
+     * The sidecar of a followed partition records the chain of files the partition has read. If the file at the
+     * path has been rotated since the index was saved, the rotated file is located by its key and read to its end,
+     * and the partition continues with the new file; if it has been truncated, the partition continues with what
+     * was written after the truncation. Rotated files that can no longer be found keep their records' indexes, but
+     * their records can no longer be read.
+     *
+     * @param indexFile the index file
+     * @param current   the file at the partition's path
+     * @return whether the index was loaded
+     */
+    private boolean loadIndex(File indexFile, Chunk current) {
+        if (!indexFile.isFile()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < INDEX_HEADER_SIZE) {
+                return false;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != INDEX_MAGIC
+                || buffer.getInt() != INDEX_VERSION
+                || buffer.getLong() != getTimestampKey()) {
+                return false;
+            }
+            int count = buffer.getInt();
+            int stride = buffer.getInt();
+            int chunkCount = buffer.getInt();
+            if (count < 0 || stride != STRIDE || chunkCount < 1) {
+                return false;
+            }
+            List<Chunk> saved = new ArrayList<>();
+            for (int i = 0; i < chunkCount; i++) {
+                long base = buffer.getLong();
+                long size = buffer.getLong();
+                long tail = buffer.getLong();
+                boolean unavailable = buffer.getInt() != 0;
+                Chunk chunk = new Chunk(base, getString(buffer), getString(buffer));
+                if (tail < 0 || tail > size || (i > 0 && base < saved.get(i - 1).base + saved.get(i - 1).size)) {
+                    return false;
+                }
+                chunk.size = size;
+                chunk.start = tail;
+                chunk.scanned = i < chunkCount - 1 || unavailable ? size : tail;
+                chunk.unavailable = unavailable;
+                saved.add(chunk);
+            }
+            int sparseCount = (count + STRIDE - 1) / STRIDE;
+            if (buffer.remaining() != (long) (count + sparseCount) * Long.BYTES) {
+                return false;
+            }
+
+            // An unfollowed partition reuses only the index of a file that has never been rotated, and leaves the
+            // chain saved by a followed partition in place.
+            Chunk last = saved.get(chunkCount - 1);
+            boolean same = !last.unavailable && last.fileKey.equals(current.fileKey);
+            if (!follow && (chunkCount > 1 || !same || last.size > current.size)) {
+                keepSaved = chunkCount > 1;
+                return false;
+            }
+
+            for (Chunk chunk : saved.subList(0, chunkCount - 1)) {
+                if (!chunk.unavailable && !openRotated(chunk, chunk.size)) {
+                    chunk.segments = new MappedByteBuffer[0];
+                    chunk.unavailable = true;
                 }
-                nodes.add(new TimestampedNode(timestamp, node));
             }
+            if (same && last.size <= current.size) {
+                current.start = last.start;
+                current.scanned = last.start;
+                saved.set(chunkCount - 1, current.rebase(last.base));
+            } else {
+                // The file was rotated or truncated since the index was saved.
+                if (last.unavailable || same || !openRotated(last, -1)) {
+                    last.segments = new MappedByteBuffer[0];
+                    last.scanned = last.size;
+                    last.unavailable = true;
+                }
+                saved.add(current.rebase(last.base + last.size));
+            }
+
+            grow(count);
+            LongBuffer longs = buffer.asLongBuffer();
+            longs.get(offsets, 0, count);
+            longs.get(sparse, 0, sparseCount);
+            for (int i = 0; i < sparseCount; i++) {
+                timestamps[i * STRIDE] = sparse[i];
+            }
+            this.count = count;
+            savedCount = count;
+            savedChunks = chunkCount;
+            chunks.addAll(saved);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // An unreadable index is rebuilt.
+            return false;
         }
-        return nodes;
     }
 
-    private static class TimestampedNode {
-        private final long timestamp;
-        private final JsonNode node;
+    /**
+     * Locates and maps a rotated file by its key. The file is closed once it is mapped, since a rotated file is
+     * no longer expected to grow.
+     *
+     * @param chunk the rotated file
+     * @param size  the size to map, or -1 to map the whole file
+     * @return whether the file was found and is at least the given size
+     */
+    private boolean openRotated(Chunk chunk, long size) {
+        Path path = chunk.path != null ? Paths.get(chunk.path) : null;
+        try {
+            if (path == null || !getFileKey(path).equals(chunk.fileKey)) {
+                path = null;
+            }
+        } catch (IOException e) {
+            path = null;
+        }
+        if (path == null) {
+            String located = locate(chunk.fileKey);
+            if (located == null) {
+                return false;
+            }
+            path = Paths.get(located);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = size < 0 ? channel.size() : size;
+            if (channel.size() < length || length < chunk.start) {
+                return false;
+            }
+            chunk.channel = channel;
+            map(chunk, length);
+            chunk.path = path.toString();
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            chunk.channel = null;
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Saves the index and the chain of files it covers to the sidecar file. The index is written to a temporary
+     * file that replaces the sidecar, so concurrent readers never see a partial index. Failing to save the index is
+     * not an error, since it can always be rebuilt.
+     *
+     * @param indexFile the index file
+     */
+    private void saveIndex(File indexFile) {
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getParentFile());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(INDEX_VERSION);
+                out.writeLong(getTimestampKey());
+                out.writeInt(count);
+                out.writeInt(STRIDE);
+                out.writeInt(chunks.size());
+                for (Chunk chunk : chunks) {
+                    out.writeLong(chunk.base);
+                    out.writeLong(chunk.size);
+                    out.writeLong(chunk.start);
+                    out.writeInt(chunk.unavailable ? 1 : 0);
+                    putString(out, chunk.fileKey);
+                    putString(out, chunk.path);
+                }
+                for (int i = 0; i < count; i++) {
+                    out.writeLong(offsets[i]);
+                }
+                for (int i = 0; i < (count + STRIDE - 1) / STRIDE; i++) {
+                    out.writeLong(sparse[i]);
+                }
+            }
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            savedCount = count;
+            savedChunks = chunks.size();
+        } catch (IOException e) {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the file containing the given position in the partition.
+     *
+     * @param position the position of a record
+     * @return the file containing the record
+     */
+    private Chunk getChunk(long position) {
+        for (int i = chunks.size() - 1; i > 0; i--) {
+            if (chunks.get(i).base <= position) {
+                return chunks.get(i);
+            }
+        }
+        return chunks.get(0);
+    }
+
+    /**
+     * Reads the bytes of the given line, excluding the line break.
+     *
+     * @param line the zero-based line number
+     * @return the bytes of the line
+     */
+    private byte[] readLine(int line) throws IOException {
+        MappedByteBuffer[] segments;
+        long start;
+        long limit;
+        synchronized (this) {
+            Chunk chunk = getChunk(offsets[line]);
+            if (chunk.unavailable) {
+                throw new IOException(String.format("Record %d of %s is no longer available", line + 1, file));
+            }
+            segments = chunk.segments;
+            start = offsets[line] - chunk.base;
+            limit = chunk.size;
+        }
+
+        long end = start;
+        while (end < limit && byteAt(segments, end) != '\n') {
+            end++;
+        }
+        if (end > start && byteAt(segments, end - 1) == '\r') {
+            end--;
+        }
+
+        byte[] bytes = new byte[(int) (end - start)];
+        int read = 0;
+        while (read < bytes.length) {
+            long position = start + read;
+            MappedByteBuffer segment = segments[(int) (position / SEGMENT_SIZE)];
+            int offset = (int) (position % SEGMENT_SIZE);
+            int length = Math.min(bytes.length - read, segment.limit() - offset);
+            // Read through a duplicate, since the position of a shared buffer cannot be changed concurrently.
+            ByteBuffer buffer = segment.duplicate();
+            buffer.position(offset);
+            buffer.get(bytes, read, length);
+            read += length;
+        }
+        return bytes;
+    }
+
+    private static byte byteAt(MappedByteBuffer[] segments, long position) {
+        return segments[(int) (position / SEGMENT_SIZE)].get((int) (position % SEGMENT_SIZE));
+    }
+
+    /**
+     * Returns the timestamp of the given line, parsing the line if its timestamp has not been read.
+     *
+     * @param line the zero-based line number
+     * @return the timestamp of the record on the line
+     */
+    private long timestamp(int line) throws IOException {
+        long timestamp = getCachedTimestamp(line);
+        if (timestamp == UNPARSED) {
+            timestamp = getTimestamp(parse(readLine(line)));
+            setTimestamp(line, timestamp);
+        }
+        return timestamp;
+    }
+
+    private synchronized long getCachedTimestamp(int line) {
+        return timestamps[line];
+    }
+
+    private synchronized void setTimestamp(int line, long timestamp) {
+        timestamps[line] = timestamp;
+    }
+
+    /**
+     * Parses a record.
+     *
+     * @param bytes the JSON encoded record
+     * @return the parsed record
+     */
+    private JsonNode parse(byte[] bytes) throws IOException {
+        JsonNode node = mapper.readTree(bytes);
+        if (node == null || node.getNodeType() != JsonNodeType.OBJECT) {
+            throw new IOException("Failed to parse JSON: not an object");
+        }
+        return node;
+    }
+
+    /**
+     * Returns the timestamp of a parsed record.
+     *
+     * @param node the parsed record
+     * @return the record timestamp
+     */
+    private long getTimestamp(JsonNode node) throws IOException {
+        JsonNode timestampValue = node.get(timestampField);
+        if (timestampValue == null) {
+            throw new IOException("Failed to parse JSON timestamp: no field " + timestampField);
+        }
+        if (timestampValue.getNodeType() == JsonNodeType.NUMBER) {
+            return timestampValue.asLong();
+        }
+        if (timestampFormat == null) {
+            throw new IOException("Failed to parse JSON timestamp: no format specified");
+        }
+        try {
+            synchronized (timestampFormat) {
+                return timestampFormat.parse(timestampValue.asText()).getTime();
+            }
+        } catch (ParseException e) {
+            throw new IOException("Failed to parse JSON timestamp", e);
+        }
+    }
+
+    /**
+     * A mapped file in the partition's chain of files, starting at the given position in the partition. A followed
+     * file is kept open so appended lines can be mapped.
+     */
+    private static class Chunk {
+        private final long base;
+        private final String fileKey;
+        private String path;
+        private FileChannel channel;
+        private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+        private long size;
+        private long scanned;
+        private long start;
+        private boolean blank = true;
+        private boolean unavailable;
+
+        Chunk(long base, String fileKey, String path) {
+            this.base = base;
+            this.fileKey = fileKey;
+            this.path = path;
+        }
 
-        TimestampedNode(long timestamp, JsonNode node) {
-            this.timestamp = timestamp;
-            this.node = node;
+        /**
+         * Returns a copy of the file that starts at the given position in the partition.
+         *
+         * @param base the position of the file in the partition
+         * @return the file at the given position
+         */
+        Chunk rebase(long base) {
+            Chunk chunk = new Chunk(base, fileKey, path);
+            chunk.channel = channel;
+            chunk.segments = segments;
+            chunk.size = size;
+            chunk.scanned = scanned;
+            chunk.start = start;
+            return chunk;
         }
     }
 }
@@ -16,25 +16,77 @@
 package tlc2.monitor.source;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * File source.
+ * <p>
+ * The source is either a single file, which is partition {@code 1}, or a directory in which each file is a
+ * partition. Files in a directory are numbered from {@code 1} in name order as they are discovered, and IDs are
+ * never reused. If the source is given a state directory, the IDs are recorded in it under a file lock, so a file
+ * has the same partition ID in every process reading the source, including TLC child processes, restarted
+ * monitors and the members of a cluster sharing the state directory.
+ * <p>
+ * If the source URI sets {@code follow=true}, partitions follow their files: the source's directory, or the
+ * directory holding the source file, is watched for changes, and partitions index records appended to their files.
+ * When a followed file is rotated, its partition reads the renamed file to its end before continuing with the new
+ * file, so a file rotated away from a partition's path in the source directory is not a partition of its own.
  */
 public class FileSource implements Source {
     static final String SCHEME = "file";
+    private static final String IDS_FILE = "file-partitions.properties";
 
     private final String uri;
     private final File file;
-    private final Map<Integer, Partition> partitions = new ConcurrentHashMap<>();
+    private final String timestampField;
+    private final SimpleDateFormat timestampFormat;
+    private final boolean follow;
+    private final File idsFile;
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final Map<Integer, FilePartition> partitions = new ConcurrentHashMap<>();
+    private WatchService watcher;
 
     public FileSource(String uri) throws URISyntaxException, IOException {
+        this(uri, null);
+    }
+
+    /**
+     * Creates a file source.
+     *
+     * @param uri      the source URI
+     * @param stateDir the directory in which to record the partition IDs of files in a source directory, or
+     *                 {@code null} to number files in memory
+     */
+    public FileSource(String uri, File stateDir) throws URISyntaxException, IOException {
         URI source = new URI(uri);
         if (!source.getScheme().equals(SCHEME)) {
             throw new IllegalStateException("Unknown source scheme " + source.getScheme());
@@ -45,6 +97,7 @@ public class FileSource implements Source {
 
         String timestampField = "timestamp";
         SimpleDateFormat timestampFormat = null;
+        boolean follow = false;
         String query = source.getQuery();
         String[] queries = query.split("&");
         for (String q : queries) {
@@ -53,19 +106,136 @@ public class FileSource implements Source {
                 timestampField = keyValue[1];
             } else if (keyValue[0].equals("format")) {
                 timestampFormat = new SimpleDateFormat(keyValue[1]);
+            } else if (keyValue[0].equals("follow")) {
+                follow = Boolean.parseBoolean(keyValue[1]);
             }
         }
+        this.timestampField = timestampField;
+        this.timestampFormat = timestampFormat;
+        this.follow = follow;
+        this.idsFile = stateDir != null ? new File(stateDir, IDS_FILE) : null;
         if (file.isFile()) {
-            partitions.put(1, new FilePartition(1, file, timestampField, timestampFormat));
+            partitions.put(1, new FilePartition(1, file, timestampField, timestampFormat, follow));
         } else {
-            int id = 1;
-            for (File child : file.listFiles()) {
-                if (child.isFile()) {
-                    partitions.put(id, new FilePartition(id, child, timestampField, timestampFormat));
-                    id++;
+            refresh();
+        }
+        if (follow) {
+            watch();
+        }
+    }
+
+    /**
+     * Watches the directory holding the source's files, and invalidates partitions when their files change.
+     * <p>
+     * The watch service is backed by the platform's file change notifications where they are available, such as
+     * inotify on Linux.
+     */
+    private void watch() throws IOException {
+        boolean directory = file.isDirectory();
+        Path dir = (directory ? file : file.getAbsoluteFile().getParentFile()).toPath();
+        watcher = dir.getFileSystem().newWatchService();
+        dir.register(watcher,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY,
+            StandardWatchEventKinds.ENTRY_DELETE);
+        Thread thread = new Thread(() -> {
+            for (; ; ) {
+                WatchKey key;
+                try {
+                    key = watcher.take();
+                } catch (InterruptedException | ClosedWatchServiceException e) {
+                    return;
                 }
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        partitions.values().forEach(FilePartition::invalidate);
+                        continue;
+                    }
+                    String name = event.context().toString();
+                    Integer id = directory ? ids.get(name) : name.equals(file.getName()) ? Integer.valueOf(1) : null;
+                    FilePartition partition = id != null ? partitions.get(id) : null;
+                    if (partition != null) {
+                        partition.invalidate();
+                    }
+                }
+                key.reset();
             }
+        }, "file-source-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Assigns partition IDs to the given files in the source directory.
+     * <p>
+     * Files that have not been numbered are given the IDs following the highest ID assigned so far. If the source
+     * has a state directory, the recorded IDs are read and new IDs are written while holding a lock on the state
+     * directory's lock file, so concurrent processes never give a file different IDs or two files the same ID.
+     *
+     * @param names the names of the files, in name order
+     */
+    private void assignIds(List<String> names) throws IOException {
+        if (ids.keySet().containsAll(names)) {
+            return;
+        }
+        if (idsFile == null) {
+            int last = ids.values().stream().mapToInt(Integer::intValue).max().orElse(0);
+            for (String name : names) {
+                if (!ids.containsKey(name)) {
+                    ids.put(name, ++last);
+                }
+            }
+            return;
         }
+
+        File dir = idsFile.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create state directory " + dir);
+        }
+        File lockFile = new File(dir, IDS_FILE + ".lock");
+        try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.lock()) {
+            Properties recorded = new Properties();
+            if (idsFile.exists()) {
+                try (InputStream input = new FileInputStream(idsFile)) {
+                    recorded.load(input);
+                }
+            }
+            int last = 0;
+            for (String name : recorded.stringPropertyNames()) {
+                int id = Integer.parseInt(recorded.getProperty(name));
+                ids.put(name, id);
+                last = Math.max(last, id);
+            }
+
+            boolean assigned = false;
+            for (String name : names) {
+                if (!ids.containsKey(name)) {
+                    ids.put(name, ++last);
+                    recorded.setProperty(name, String.valueOf(last));
+                    assigned = true;
+                }
+            }
+            if (assigned) {
+                File tempFile = new File(dir, IDS_FILE + ".tmp");
+                try (FileOutputStream output = new FileOutputStream(tempFile)) {
+                    recorded.store(output, file.getAbsolutePath());
+                    output.getFD().sync();
+                }
+                Files.move(tempFile.toPath(), idsFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    /**
+     * Returns whether a file in the source directory is a partition index rather than a partition.
+     *
+     * @param file the file
+     * @return whether the file is a partition index
+     */
+    private static boolean isIndexFile(File file) {
+        String name = file.getName();
+        return name.startsWith(".") && (name.endsWith(FilePartition.INDEX_SUFFIX) || name.endsWith(".tmp"));
     }
 
     @Override
@@ -80,7 +250,101 @@ public class FileSource implements Source {
 
     @Override
     public Collection<Partition> getPartitions() {
-        return partitions.values();
+        return Collections.unmodifiableCollection(partitions.values());
+    }
+
+    @Override
+    public synchronized boolean refresh() throws IOException {
+        if (!file.isDirectory()) {
+            return false;
+        }
+        File[] children = file.listFiles();
+        if (children == null) {
+            throw new IOException("Failed to list " + file);
+        }
+
+        Arrays.sort(children, Comparator.comparing(File::getName));
+        List<String> names = new ArrayList<>();
+        for (File child : children) {
+            if (child.isFile() && !isIndexFile(child)) {
+                names.add(child.getName());
+            }
+        }
+        assignIds(names);
+
+        Map<Integer, File> files = new HashMap<>();
+        for (String name : names) {
+            files.put(ids.get(name), new File(file, name));
+        }
+
+        // A file rotated away from a followed partition's path is read by that partition, so it is not a partition
+        // of its own. Rotated files are skipped before their partitions are created, and partitions that turn out
+        // to be reading another partition's rotated file are removed.
+        Set<String> skipped = getRotatedFileKeys();
+        for (Map.Entry<Integer, File> entry : new ArrayList<>(files.entrySet())) {
+            if (!partitions.containsKey(entry.getKey()) && skipped.contains(getFileKey(entry.getValue()))) {
+                files.remove(entry.getKey());
+            }
+        }
+
+        boolean changed = false;
+        for (Map.Entry<Integer, File> entry : files.entrySet()) {
+            if (!partitions.containsKey(entry.getKey())) {
+                partitions.put(entry.getKey(), new FilePartition(
+                    entry.getKey(), entry.getValue(), timestampField, timestampFormat, follow));
+                changed = true;
+            }
+        }
+
+        Set<String> rotated = getRotatedFileKeys();
+        if (!rotated.isEmpty()) {
+            files.values().removeIf(f -> rotated.contains(getFileKey(f)));
+        }
+
+        // Close the partitions of removed files to release their mappings.
+        for (Integer id : new ArrayList<>(partitions.keySet())) {
+            if (!files.containsKey(id)) {
+                partitions.remove(id).close();
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the keys of the files that followed partitions have read before the files were rotated.
+     *
+     * @return the keys of rotated files
+     */
+    private Set<String> getRotatedFileKeys() {
+        if (!follow) {
+            return Collections.emptySet();
+        }
+        Set<String> keys = new HashSet<>();
+        for (FilePartition partition : partitions.values()) {
+            try {
+                keys.addAll(partition.getRotatedFileKeys());
+            } catch (IOException e) {
+                // A partition that cannot be read is reported by its monitor.
+            }
+        }
+        return keys;
+    }
+
+    private static String getFileKey(File file) {
+        try {
+            return FilePartition.getFileKey(file.toPath());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
+        Source.super.close();
     }
 
     @Override
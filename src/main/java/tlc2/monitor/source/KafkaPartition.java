@@ -18,31 +18,41 @@ package tlc2.monitor.source;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
-import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
 import org.apache.kafka.common.TopicPartition;
 import tlc2.overrides.JsonUtils;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Consumes values from a Kafka partition.
+ * <p>
+ * Sequential reads are served by a {@link ReadAhead} buffer filled by a background consumer. Random reads, such as
+ * the probes made by {@link #indexOf(long)}, are made with a separate consumer that fetches a single record, so they
+ * do not disturb the buffer. Timestamps covered by the records already read are resolved from a local
+ * {@link TimestampIndex} without a round trip to the broker.
  */
 public class KafkaPartition implements Partition {
     private final TopicPartition partition;
     private final Consumer<String, String> consumer;
+    private final ReadAhead readAhead;
+    private final TimestampIndex timestamps = new TimestampIndex();
     private final ObjectMapper mapper = new ObjectMapper();
-    private final Map<Long, Record> records = new ConcurrentHashMap<>();
+    private final RecordCache cache = new RecordCache();
 
     KafkaPartition(String host, int port, String topic, int partition) throws IOException {
         this.partition = new TopicPartition(topic, partition);
-        this.consumer = getConsumer(host, port, topic, partition);
+        this.consumer = getConsumer(host, port, topic, partition, 1);
+        this.readAhead = new ReadAhead(
+            this.partition, getConsumer(host, port, topic, partition, 500), this::decode, timestamps);
     }
 
     @Override
@@ -52,19 +62,33 @@ public class KafkaPartition implements Partition {
 
     @Override
     public long indexOf(long timestamp) throws IOException {
-        long endOffset = consumer.endOffsets(Collections.singleton(partition)).get(partition) - 1;
+        // Resolve the timestamp from the records already read, if they cover it.
+        long offset = timestamps.find(timestamp);
+        if (offset != -1) {
+            return offset;
+        }
+
+        long endOffset;
+        synchronized (consumer) {
+            endOffset = consumer.endOffsets(Collections.singleton(partition)).get(partition) - 1;
+        }
         if (endOffset == -1) {
             return 0;
         }
 
-        Record record = get(endOffset);
+        Record record = probe(endOffset);
         if (record.timestamp() < timestamp) {
             return record.index();
         }
 
         Map<TopicPartition, Long> times = new HashMap<>();
         times.put(partition, timestamp);
-        endOffset = consumer.offsetsForTimes(times).get(partition).offset();
+        OffsetAndTimestamp found;
+        synchronized (consumer) {
+            found = consumer.offsetsForTimes(times).get(partition);
+        }
+        timestamps.add(found.offset(), found.timestamp(), -1);
+        endOffset = found.offset();
         if (endOffset == 0) {
             return 1;
         }
@@ -73,31 +97,97 @@ public class KafkaPartition implements Partition {
 
     @Override
     public Record get(long index) throws IOException {
-        Record record = records.get(index);
-        if (record == null) {
-            records.clear();
+        Record record = cache.get(index);
+        if (record != null) {
+            return record;
+        }
+        return readAhead.get(index, this::probe);
+    }
+
+    @Override
+    public List<Record> getRange(long from, long to) throws IOException {
+        List<Record> cached = new ArrayList<>();
+        for (long index = from; index <= to && cached != null; index++) {
+            Record record = cache.get(index);
+            if (record != null) {
+                cached.add(record);
+            } else {
+                cached = null;
+            }
+        }
+        if (cached != null) {
+            return cached;
+        }
+        return readAhead.getRange(from, to, this::probe);
+    }
+
+    /**
+     * Reads a single record with the probe consumer.
+     *
+     * @param index the record offset
+     * @return the record, or {@code null} if there is no record at the offset
+     */
+    private Record probe(long index) throws IOException {
+        Record record = cache.get(index);
+        if (record != null) {
+            return record;
+        }
+        ConsumerRecord<String, String> fetched = null;
+        synchronized (consumer) {
             consumer.seek(partition, index);
-            ConsumerRecords<String, String> records = consumer.poll(Duration.ofMillis(Long.MAX_VALUE));
-            for (ConsumerRecord<String, String> r : records) {
-                this.records.put(r.offset(), new Record(r.offset(), JsonUtils.getValue(mapper.readTree(r.value())), r.timestamp()));
+            for (ConsumerRecord<String, String> r : consumer.poll(Duration.ofMillis(Long.MAX_VALUE))) {
+                if (r.offset() == index) {
+                    fetched = r;
+                }
             }
-            record = this.records.get(index);
         }
+        if (fetched == null) {
+            return null;
+        }
+        record = decode(fetched);
+        timestamps.add(record.index(), record.timestamp(), -1);
         return record;
     }
 
+    /**
+     * Decodes a fetched record and adds it to the record cache.
+     *
+     * @param record the fetched record
+     * @return the decoded record
+     */
+    private Record decode(ConsumerRecord<String, String> record) throws IOException {
+        return cache.put(
+            new Record(record.offset(), JsonUtils.getValue(mapper.readTree(record.value())), record.timestamp()),
+            record.value().length());
+    }
+
+    /**
+     * Stops reading ahead and closes the partition's consumers.
+     * <p>
+     * A probe blocked waiting for a record is woken, and fails.
+     */
+    @Override
+    public void close() {
+        readAhead.close();
+        consumer.wakeup();
+        synchronized (consumer) {
+            consumer.close();
+        }
+    }
+
     @Override
     public String toString() {
         return String.format("%s/%d", partition.topic(), partition.partition());
     }
 
-    private static Consumer<String, String> getConsumer(String host, int port, String topic, int partition) throws IOException {
+    private static Consumer<String, String> getConsumer(String host, int port, String topic, int partition, int maxPollRecords) throws IOException {
         Properties config = new Properties();
         config.setProperty("bootstrap.servers", String.format("%s:%d", host, port));
         config.setProperty("client.id", InetAddress.getLocalHost().getHostName());
         config.setProperty("group.id", InetAddress.getLocalHost().getHostName());
         config.setProperty("enable.auto.commit", "false");
         config.setProperty("auto.offset.reset", "earliest");
+        config.setProperty("max.poll.records", String.valueOf(maxPollRecords));
         config.setProperty("key.deserializer", "org.apache.kafka.common.serialization.StringDeserializer");
         config.setProperty("value.deserializer", "org.apache.kafka.common.serialization.StringDeserializer");
         config.setProperty("client.dns.lookup", "use_all_dns_ips");
@@ -30,7 +30,13 @@ import java.util.concurrent.ConcurrentHashMap;
 public class KafkaSource implements Source {
     static final String SCHEME = "kafka";
 
+    private static final long METADATA_MAX_AGE = 30000;
+
     private final String uri;
+    private final String host;
+    private final int port;
+    private final String topic;
+    private final org.apache.kafka.clients.consumer.Consumer<String, String> consumer;
     private final Map<Integer, Partition> partitions = new ConcurrentHashMap<>();
 
     public KafkaSource(String uri) throws URISyntaxException, IOException {
@@ -44,8 +50,11 @@ public class KafkaSource implements Source {
         if (topic.equals("")) {
             throw new IllegalStateException("No topic specified");
         }
-        getPartitions(source.getHost(), source.getPort(), topic)
-            .forEach(partition -> partitions.put(partition.id(), partition));
+        this.host = source.getHost();
+        this.port = source.getPort();
+        this.topic = topic;
+        this.consumer = getConsumer(host, port, topic);
+        refresh();
     }
 
     @Override
@@ -63,12 +72,31 @@ public class KafkaSource implements Source {
         return partitions.values();
     }
 
+    @Override
+    public synchronized boolean refresh() throws IOException {
+        // Partitions cannot be removed from a Kafka topic, so only new partitions are added.
+        boolean changed = false;
+        for (PartitionInfo partitionInfo : consumer.partitionsFor(topic)) {
+            if (!partitions.containsKey(partitionInfo.partition())) {
+                partitions.put(partitionInfo.partition(), new KafkaPartition(host, port, topic, partitionInfo.partition()));
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        Source.super.close();
+        consumer.close();
+    }
+
     @Override
     public String toString() {
         return uri;
     }
 
-    private static Collection<Partition> getPartitions(String host, int port, String topic) throws IOException {
+    private static org.apache.kafka.clients.consumer.Consumer<String, String> getConsumer(String host, int port, String topic) throws IOException {
         Properties config = new Properties();
         config.setProperty("bootstrap.servers", String.format("%s:%d", host, port));
         config.setProperty("client.id", InetAddress.getLocalHost().getHostName());
@@ -78,13 +106,10 @@ public class KafkaSource implements Source {
         config.setProperty("key.deserializer", "org.apache.kafka.common.serialization.StringDeserializer");
         config.setProperty("value.deserializer", "org.apache.kafka.common.serialization.StringDeserializer");
         config.setProperty("client.dns.lookup", "use_all_dns_ips");
+        // Refresh topic metadata frequently enough to discover new partitions while the topic is monitored.
+        config.setProperty("metadata.max.age.ms", String.valueOf(METADATA_MAX_AGE));
         org.apache.kafka.clients.consumer.Consumer<String, String> consumer = new org.apache.kafka.clients.consumer.KafkaConsumer<>(config);
         consumer.subscribe(Collections.singleton(topic));
-        List<PartitionInfo> partitionsInfo = consumer.partitionsFor(topic);
-        List<Partition> partitions = new ArrayList<>(partitionsInfo.size());
-        for (PartitionInfo partitionInfo : partitionsInfo) {
-            partitions.add(new KafkaPartition(host, port, topic, partitionInfo.partition()));
-        }
-        return partitions;
+        return consumer;
     }
 }
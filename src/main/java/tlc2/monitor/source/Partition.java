@@ -16,6 +16,8 @@
 package tlc2.monitor.source;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Source partition.
@@ -45,4 +47,33 @@ public interface Partition {
      * @throws IOException if the get fails
      */
     Record get(long index) throws IOException;
+
+    /**
+     * Gets the records in the given range of indexes.
+     * <p>
+     * Partitions may override this method to read the range more efficiently than one record at a time.
+     *
+     * @param from the first index to get
+     * @param to   the last index to get, inclusive
+     * @return the records in the range, in index order
+     * @throws IOException if the get fails
+     */
+    default List<Record> getRange(long from, long to) throws IOException {
+        List<Record> records = new ArrayList<>();
+        for (long index = from; index <= to; index++) {
+            Record record = get(index);
+            if (record != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Closes the partition, releasing any connections or threads used to read it.
+     *
+     * @throws IOException if the partition cannot be closed
+     */
+    default void close() throws IOException {
+    }
 }
@@ -0,0 +1,403 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tlc2.monitor.source;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Sequential read-ahead buffer for a Kafka partition.
+ * <p>
+ * Records are fetched and decoded ahead of the reader by a background thread with its own consumer, into a ring
+ * buffer indexed by offset. The buffer holds a contiguous range of offsets, and a record is evicted once the reader
+ * has read a quarter of the buffer past it, so records just behind the reader can be read again. The prefetcher
+ * stops when the buffer is full or holds the memory budget of records ahead of the reader, and idles once it has
+ * caught up with the end of the partition until a reader waits for a record beyond the buffer.
+ * <p>
+ * Reads that do not continue the buffered range, such as the probes made to search the partition, are passed to
+ * a fallback without disturbing the buffer. Two consecutive misses at consecutive offsets are taken to be the start
+ * of a sequential read, and the buffer is restarted at the second offset.
+ * <p>
+ * Buffered records are added to the partition's {@link TimestampIndex} in offset order. Once the buffer is closed,
+ * the prefetcher stops and closes its consumer, and every read is passed to the fallback.
+ */
+final class ReadAhead {
+    static final int DEFAULT_CAPACITY = 8192;
+    static final long DEFAULT_BUDGET = 16L * 1024 * 1024;
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(100);
+
+    /**
+     * Decodes fetched records.
+     */
+    interface Decoder {
+        /**
+         * Decodes a fetched record.
+         *
+         * @param record the fetched record
+         * @return the decoded record
+         * @throws IOException if the record cannot be decoded
+         */
+        Record decode(ConsumerRecord<String, String> record) throws IOException;
+    }
+
+    /**
+     * Reads records that are not served by the buffer.
+     */
+    interface Fallback {
+        /**
+         * Reads the record at the given offset.
+         *
+         * @param index the record offset
+         * @return the record, or {@code null} if there is no record at the offset
+         * @throws IOException if the read fails
+         */
+        Record get(long index) throws IOException;
+    }
+
+    private final TopicPartition partition;
+    private final Consumer<String, String> consumer;
+    private final Decoder decoder;
+    private final TimestampIndex timestamps;
+    private final int capacity;
+    private final int trailing;
+    private final long budget;
+    private final Record[] records;
+    private final int[] lengths;
+    private long start;
+    private long end;
+    private long bytes;
+    private long demand;
+    private long generation;
+    private long last = -1;
+    private long lastMiss = Long.MIN_VALUE;
+    private IOException failure;
+    private boolean idle;
+    private boolean closed;
+    private Thread prefetcher;
+
+    ReadAhead(TopicPartition partition, Consumer<String, String> consumer, Decoder decoder, TimestampIndex timestamps) {
+        this(partition, consumer, decoder, timestamps, DEFAULT_CAPACITY, DEFAULT_BUDGET);
+    }
+
+    ReadAhead(TopicPartition partition, Consumer<String, String> consumer, Decoder decoder, TimestampIndex timestamps,
+              int capacity, long budget) {
+        this.partition = partition;
+        this.consumer = consumer;
+        this.decoder = decoder;
+        this.timestamps = timestamps;
+        this.capacity = capacity;
+        this.trailing = capacity / 4;
+        this.budget = budget;
+        this.records = new Record[capacity];
+        this.lengths = new int[capacity];
+    }
+
+    /**
+     * Returns the record at the given offset.
+     * <p>
+     * If the offset is buffered, the buffered record is returned. If the offset is ahead of the buffered range but
+     * within the buffer's capacity, the reader waits for the prefetcher to reach it. Otherwise, the record is read
+     * through the fallback, unless the read continues a sequential read, in which case the buffer is restarted.
+     *
+     * @param index    the record offset
+     * @param fallback the fallback for records that are not served by the buffer
+     * @return the record, or {@code null} if there is no record at the offset
+     * @throws IOException if the read fails
+     */
+    Record get(long index, Fallback fallback) throws IOException {
+        synchronized (this) {
+            for (; ; ) {
+                if (closed) {
+                    break;
+                }
+                if (index >= start && index < end) {
+                    Record record = records[slot(index)];
+                    release(index);
+                    return record;
+                }
+                if (prefetcher != null && index >= end && index < start + capacity) {
+                    if (failure != null) {
+                        IOException e = failure;
+                        restart(index);
+                        throw new IOException(String.format("Failed to read ahead in %s", partition), e);
+                    }
+                    if (index > demand) {
+                        demand = index;
+                        notifyAll();
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException(e);
+                    }
+                    continue;
+                }
+                if (index != lastMiss + 1) {
+                    lastMiss = index;
+                    break;
+                }
+                restart(index);
+            }
+        }
+        return fallback.get(index);
+    }
+
+    /**
+     * Returns the records in the given range of offsets, restarting the buffer at the start of the range unless the
+     * range continues the buffered range.
+     *
+     * @param from     the first offset to get
+     * @param to       the last offset to get, inclusive
+     * @param fallback the fallback for records that are not served by the buffer
+     * @return the records in the range, in offset order
+     * @throws IOException if the read fails
+     */
+    List<Record> getRange(long from, long to, Fallback fallback) throws IOException {
+        synchronized (this) {
+            if (!closed && (prefetcher == null || from < start || from > end)) {
+                restart(from);
+            }
+        }
+        List<Record> records = new ArrayList<>();
+        for (long index = from; index <= to; index++) {
+            Record record = get(index, fallback);
+            if (record != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    private int slot(long index) {
+        return (int) (index % capacity);
+    }
+
+    /**
+     * Evicts the records more than a quarter of the buffer behind the given offset.
+     *
+     * @param index the offset read
+     */
+    private void release(long index) {
+        long first = Math.min(index - trailing, end);
+        if (first > start) {
+            clear(start, first);
+            start = first;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Clears the buffered records from the given offset up to, but excluding, the given offset.
+     */
+    private void clear(long from, long to) {
+        for (long index = from; index < to; index++) {
+            int slot = slot(index);
+            records[slot] = null;
+            bytes -= lengths[slot];
+            lengths[slot] = 0;
+        }
+    }
+
+    /**
+     * Discards the buffered records and restarts the prefetcher at the given offset.
+     *
+     * @param index the offset from which to read ahead
+     */
+    private void restart(long index) {
+        clear(start, end);
+        start = index;
+        end = index;
+        demand = index;
+        last = -1;
+        failure = null;
+        idle = false;
+        generation++;
+        if (prefetcher == null) {
+            prefetcher = new Thread(this::prefetch, String.format("read-ahead-%s", partition));
+            prefetcher.setDaemon(true);
+            prefetcher.start();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Stops the prefetcher and closes its consumer.
+     * <p>
+     * The consumer is not thread-safe, so a running prefetcher is woken and closes the consumer itself.
+     */
+    void close() {
+        Thread thread;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            clear(start, end);
+            start = end;
+            thread = prefetcher;
+            notifyAll();
+        }
+        if (thread != null) {
+            consumer.wakeup();
+        } else {
+            consumer.close();
+        }
+    }
+
+    /**
+     * Returns whether the prefetcher must wait for the reader: either the buffer is full, or it holds the memory
+     * budget of records and no reader is waiting for a record that has not been fetched.
+     */
+    private boolean isFull() {
+        return end - start >= capacity || (bytes >= budget && end > demand);
+    }
+
+    /**
+     * Returns whether the prefetcher must wait: it has failed, the buffer is full, or it has caught up with the end
+     * of the partition and no reader is waiting for a record that has not been fetched.
+     */
+    private boolean isWaiting() {
+        return failure != null || isFull() || (idle && end > demand);
+    }
+
+    /**
+     * Fetches and decodes records into the buffer until the buffer is closed.
+     */
+    private void prefetch() {
+        try {
+            prefetchRecords();
+        } finally {
+            consumer.close();
+        }
+    }
+
+    /**
+     * Fetches and decodes records into the buffer until the buffer is closed or the thread is interrupted.
+     */
+    private void prefetchRecords() {
+        long position = -1;
+        for (; ; ) {
+            long generation;
+            long next;
+            synchronized (this) {
+                try {
+                    while (!closed && isWaiting()) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed) {
+                    return;
+                }
+                generation = this.generation;
+                next = end;
+            }
+
+            List<ConsumerRecord<String, String>> fetched = new ArrayList<>();
+            List<Record> decoded;
+            try {
+                if (position != next) {
+                    consumer.seek(partition, next);
+                    position = next;
+                }
+                ConsumerRecords<String, String> polled = consumer.poll(POLL_TIMEOUT);
+                for (ConsumerRecord<String, String> record : polled) {
+                    fetched.add(record);
+                }
+                decoded = decode(fetched);
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                    if (this.generation == generation) {
+                        failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                        notifyAll();
+                    }
+                }
+                position = -1;
+                continue;
+            }
+
+            synchronized (this) {
+                if (this.generation != generation) {
+                    position = -1;
+                    continue;
+                }
+                idle = fetched.isEmpty();
+                for (int i = 0; i < fetched.size(); i++) {
+                    long offset = fetched.get(i).offset();
+                    if (offset < end) {
+                        continue;
+                    }
+                    // Offsets missing from the partition, e.g. after compaction, are buffered as empty.
+                    while (end < offset && end - start < capacity) {
+                        end++;
+                    }
+                    if (end - start >= capacity) {
+                        position = -1;
+                        break;
+                    }
+                    int slot = slot(offset);
+                    int length = fetched.get(i).value().length();
+                    records[slot] = decoded.get(i);
+                    lengths[slot] = length;
+                    bytes += length;
+                    end = offset + 1;
+
+                    // Records are fetched sequentially, so the record last buffered precedes this one.
+                    timestamps.add(offset, decoded.get(i).timestamp(), last);
+                    last = offset;
+                    position = end;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Decodes fetched records in parallel.
+     *
+     * @param fetched the fetched records
+     * @return the decoded records, in the order in which they were fetched
+     */
+    private List<Record> decode(List<ConsumerRecord<String, String>> fetched) throws IOException {
+        try {
+            return fetched.parallelStream()
+                .map(record -> {
+                    try {
+                        return decoder.decode(record);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
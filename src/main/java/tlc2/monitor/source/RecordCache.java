@@ -0,0 +1,200 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tlc2.monitor.source;
+
+/**
+ * Cache of decoded records for a partition.
+ * <p>
+ * Decoding a record builds a new TLC value tree, which TLC must then normalize before comparing or fingerprinting
+ * it. The cache holds each record's value deeply normalized, so records read repeatedly, e.g. by every state at
+ * the same trace offset or by consecutive windows in a pooled worker, are decoded and normalized once and
+ * returned without allocating. The cache is bounded by the total length of the cached records' JSON encodings,
+ * a proxy for the memory held by their decoded values.
+ * <p>
+ * Every TLC worker reads through the cache, so records are spread by index across independently locked stripes,
+ * each an open-addressing table keyed by the primitive index. Stripes evict with the clock algorithm, which
+ * approximates least recently used eviction without reordering entries on every read.
+ */
+final class RecordCache {
+    static final long DEFAULT_CAPACITY = 64L * 1024 * 1024;
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    RecordCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    RecordCache(long capacity) {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(Math.max(capacity / STRIPES, 1));
+        }
+    }
+
+    /**
+     * Returns the cached record at the given index.
+     *
+     * @param index the record index
+     * @return the cached record, or {@code null} if the record is not cached
+     */
+    Record get(long index) {
+        return stripe(index).get(index);
+    }
+
+    /**
+     * Adds a decoded record to the cache, normalizing its value.
+     *
+     * @param record the record to cache
+     * @param length the length of the record's JSON encoding
+     * @return the record
+     */
+    Record put(Record record, long length) {
+        record.value().deepNormalize();
+        stripe(record.index()).put(new Entry(record, length));
+        return record;
+    }
+
+    private Stripe stripe(long index) {
+        // Consecutive indexes are read together, so spread them across stripes.
+        return stripes[(int) (index & (STRIPES - 1))];
+    }
+
+    /**
+     * Independently locked portion of the cache.
+     * <p>
+     * Entries are stored with linear probing, and removed by shifting later entries of the same probe sequence
+     * back into the freed slot so lookups never need tombstones.
+     */
+    private static final class Stripe {
+        private static final int INITIAL_SLOTS = 64;
+
+        private final long capacity;
+        private long[] keys = new long[INITIAL_SLOTS];
+        private Entry[] entries = new Entry[INITIAL_SLOTS];
+        private int count;
+        private long size;
+        private int hand;
+
+        Stripe(long capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized Record get(long index) {
+            int mask = keys.length - 1;
+            for (int slot = slot(index, mask); entries[slot] != null; slot = (slot + 1) & mask) {
+                if (keys[slot] == index) {
+                    Entry entry = entries[slot];
+                    entry.referenced = true;
+                    return entry.record;
+                }
+            }
+            return null;
+        }
+
+        synchronized void put(Entry entry) {
+            if ((count + 1) * 4 > keys.length * 3) {
+                resize(keys.length * 2);
+            }
+
+            long index = entry.record.index();
+            int mask = keys.length - 1;
+            int slot = slot(index, mask);
+            while (entries[slot] != null && keys[slot] != index) {
+                slot = (slot + 1) & mask;
+            }
+            if (entries[slot] != null) {
+                size -= entries[slot].length;
+            } else {
+                count++;
+            }
+            keys[slot] = index;
+            entries[slot] = entry;
+            size += entry.length;
+            evict(entry);
+        }
+
+        /**
+         * Sweeps the clock hand over the table, evicting entries that have not been read since it last passed
+         * them, until the stripe is within its capacity. The entry just added is never evicted.
+         */
+        private void evict(Entry added) {
+            int mask = keys.length - 1;
+            while (size > capacity && count > 1) {
+                Entry entry = entries[hand];
+                if (entry == null || entry == added) {
+                    hand = (hand + 1) & mask;
+                } else if (entry.referenced) {
+                    entry.referenced = false;
+                    hand = (hand + 1) & mask;
+                } else {
+                    // Removal may shift a later entry into the hand's slot, so the hand stays put.
+                    size -= entry.length;
+                    remove(hand);
+                }
+            }
+        }
+
+        private void remove(int slot) {
+            int mask = keys.length - 1;
+            int hole = slot;
+            for (int next = (hole + 1) & mask; entries[next] != null; next = (next + 1) & mask) {
+                // Move the entry into the hole unless its probe sequence starts after the hole.
+                if (((next - slot(keys[next], mask)) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    entries[hole] = entries[next];
+                    hole = next;
+                }
+            }
+            entries[hole] = null;
+            count--;
+        }
+
+        private void resize(int slots) {
+            long[] oldKeys = keys;
+            Entry[] oldEntries = entries;
+            keys = new long[slots];
+            entries = new Entry[slots];
+            hand = 0;
+            int mask = slots - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldEntries[i] != null) {
+                    int slot = slot(oldKeys[i], mask);
+                    while (entries[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    entries[slot] = oldEntries[i];
+                }
+            }
+        }
+
+        private static int slot(long index, int mask) {
+            // Indexes within a stripe share their low bits, so mix the high bits in before masking.
+            return (int) ((index * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        }
+    }
+
+    private static final class Entry {
+        private final Record record;
+        private final long length;
+        private boolean referenced;
+
+        Entry(Record record, long length) {
+            this.record = record;
+            this.length = length;
+        }
+    }
+}
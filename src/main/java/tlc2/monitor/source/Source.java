@@ -15,6 +15,7 @@
  */
 package tlc2.monitor.source;
 
+import java.io.IOException;
 import java.util.Collection;
 
 /**
@@ -46,4 +47,28 @@ public interface Source {
      * @return the partitions for the source
      */
     Collection<Partition> getPartitions();
+
+    /**
+     * Rediscovers the partitions for the source.
+     * <p>
+     * Sources whose partitions can change while they are monitored add new partitions to, and remove deleted
+     * partitions from, the partitions returned by {@link #getPartitions()}.
+     *
+     * @return whether the partitions for the source changed
+     * @throws IOException if the partitions cannot be listed
+     */
+    default boolean refresh() throws IOException {
+        return false;
+    }
+
+    /**
+     * Closes the source and its partitions.
+     *
+     * @throws IOException if the source cannot be closed
+     */
+    default void close() throws IOException {
+        for (Partition partition : getPartitions()) {
+            partition.close();
+        }
+    }
 }
@@ -15,6 +15,7 @@
  */
 package tlc2.monitor.source;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -30,12 +31,24 @@ public final class Sources {
      * @return the source
      */
     public static Source getSource(String source) throws URISyntaxException, IOException {
+        return getSource(source, null);
+    }
+
+    /**
+     * Gets the source for the given URI.
+     *
+     * @param source   the source URI
+     * @param stateDir the directory in which the source may record state shared by every process reading it, or
+     *                 {@code null}
+     * @return the source
+     */
+    public static Source getSource(String source, File stateDir) throws URISyntaxException, IOException {
         URI uri = new URI(source);
         switch (uri.getScheme()) {
             case KafkaSource.SCHEME:
                 return new KafkaSource(source);
             case FileSource.SCHEME:
-                return new FileSource(source);
+                return new FileSource(source, stateDir);
             default:
                 throw new IllegalArgumentException("Unknown source scheme " + uri.getScheme());
         }
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tlc2.monitor.source;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Local index from record timestamps to offsets for a partition.
+ * <p>
+ * The index is filled in as records are read, and holds runs of consecutive offsets with their timestamps. Offsets
+ * within a run that hold no record, e.g. transaction markers, take the timestamp of the record before them. A
+ * timestamp can be resolved locally if it falls after the first timestamp of a run and no later than its last,
+ * since the first record at or after the timestamp is then in the run and the record before it is known to be
+ * earlier. Records are assumed to be ordered by timestamp; a record earlier than the end of the run it follows
+ * starts a new run.
+ * <p>
+ * The index is bounded by the number of offsets it holds, and the runs with the lowest offsets are dropped first.
+ */
+final class TimestampIndex {
+    static final int DEFAULT_CAPACITY = 1 << 20;
+    private static final int MAX_GAP = 1024;
+
+    private final int capacity;
+    private final List<Run> runs = new ArrayList<>();
+    private long size;
+
+    TimestampIndex() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    TimestampIndex(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the offset of the first record at or after the given timestamp, if it can be resolved locally.
+     *
+     * @param timestamp the timestamp for which to search
+     * @return the offset of the first record at or after the timestamp, or {@code -1} if it is not indexed
+     */
+    synchronized long find(long timestamp) {
+        for (Run run : runs) {
+            if (run.length > 1 && run.timestamps[0] < timestamp && timestamp <= run.timestamps[run.length - 1]) {
+                int low = 1;
+                int high = run.length - 1;
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (run.timestamps[mid] < timestamp) {
+                        low = mid + 1;
+                    } else {
+                        high = mid;
+                    }
+                }
+                return run.first + low;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a record to the index.
+     *
+     * @param offset    the record offset
+     * @param timestamp the record timestamp
+     * @param previous  the offset of the record known to precede this one, with no records between them, or
+     *                  {@code -1} if it is not known
+     */
+    synchronized void add(long offset, long timestamp, long previous) {
+        int index = floor(offset);
+        if (index >= 0) {
+            Run run = runs.get(index);
+            long end = run.first + run.length;
+            if (offset < end) {
+                return;
+            }
+            long last = run.timestamps[run.length - 1];
+            if ((offset == end || (previous == end - 1 && offset - end <= MAX_GAP)) && timestamp >= last) {
+                while (run.first + run.length < offset) {
+                    run.append(last);
+                    size++;
+                }
+                run.append(timestamp);
+                size++;
+                merge(index);
+                trim();
+                return;
+            }
+        }
+        runs.add(index + 1, new Run(offset, timestamp));
+        size++;
+        merge(index + 1);
+        trim();
+    }
+
+    /**
+     * Returns the position of the last run starting at or before the given offset.
+     *
+     * @param offset the offset
+     * @return the run position, or {@code -1} if every run starts after the offset
+     */
+    private int floor(long offset) {
+        int low = 0;
+        int high = runs.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (runs.get(mid).first <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    /**
+     * Merges the run at the given position with the run after it if they are consecutive.
+     *
+     * @param index the run position
+     */
+    private void merge(int index) {
+        if (index + 1 >= runs.size()) {
+            return;
+        }
+        Run run = runs.get(index);
+        Run next = runs.get(index + 1);
+        long end = run.first + run.length;
+        if (end > next.first) {
+            // The runs overlap, so the later run is redundant up to the end of this one.
+            runs.remove(index + 1);
+            size -= next.length;
+        } else if (end == next.first && next.timestamps[0] >= run.timestamps[run.length - 1]) {
+            for (int i = 0; i < next.length; i++) {
+                run.append(next.timestamps[i]);
+            }
+            runs.remove(index + 1);
+        }
+    }
+
+    /**
+     * Drops the lowest offsets once the index exceeds its capacity, down to seven eighths of its capacity so that
+     * trimming is amortized over many additions.
+     */
+    private void trim() {
+        if (size <= capacity) {
+            return;
+        }
+        long excess = size - capacity + capacity / 8;
+        while (excess > 0 && !runs.isEmpty()) {
+            Run run = runs.get(0);
+            if (run.length <= excess) {
+                runs.remove(0);
+                size -= run.length;
+                excess -= run.length;
+            } else {
+                int drop = (int) excess;
+                run.timestamps = Arrays.copyOfRange(run.timestamps, drop, drop + Math.max(run.length - drop, 16));
+                run.first += drop;
+                run.length -= drop;
+                size -= drop;
+                excess = 0;
+            }
+        }
+    }
+
+    /**
+     * A run of consecutive offsets.
+     */
+    private static final class Run {
+        private long first;
+        private long[] timestamps = new long[16];
+        private int length;
+
+        Run(long first, long timestamp) {
+            this.first = first;
+            append(timestamp);
+        }
+
+        void append(long timestamp) {
+            if (length == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, length * 2);
+            }
+            timestamps[length++] = timestamp;
+        }
+    }
+}
@@ -15,8 +15,8 @@
  */
 package tlc2.overrides;
 
-import tlc2.monitor.sink.KafkaSink;
 import tlc2.monitor.sink.Sink;
+import tlc2.monitor.sink.Sinks;
 import tlc2.monitor.util.Logger;
 import tlc2.monitor.util.ModuleLogger;
 import tlc2.value.IValue;
@@ -24,6 +24,8 @@ import tlc2.value.impl.BoolValue;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * TLA+ module for publishing alerts to a configurable sink.
@@ -33,26 +35,41 @@ public class Alerts {
 
     public static final String SINK_ENV = "TLC_ALERTS_SINK";
 
-    private static final Sink SINK;
+    private static final Map<String, Sink> SINKS = new ConcurrentHashMap<>();
+
+    private static volatile Sink sink;
 
     static {
-        String uri = System.getenv(SINK_ENV);
+        configure(System.getenv());
+    }
+
+    /**
+     * Configures the alerts sink from the given environment.
+     * <p>
+     * Sinks are cached by URI so long-lived TLC workers can reuse their producers across windows.
+     *
+     * @param env the environment from which to read the configuration
+     */
+    public static synchronized void configure(Map<String, String> env) {
+        String uri = env.get(SINK_ENV);
+        Sink newSink = null;
         if (uri != null) {
-            Sink sink = null;
-            try {
-                sink = new KafkaSink(uri);
-            } catch (URISyntaxException | IOException e) {
-                LOGGER.log("Failed to load sink %s: %s", uri, e);
-                e.printStackTrace();
+            newSink = SINKS.get(uri);
+            if (newSink == null) {
+                try {
+                    newSink = Sinks.getSink(uri);
+                    SINKS.put(uri, newSink);
+                } catch (URISyntaxException | IOException e) {
+                    LOGGER.log("Failed to load sink %s: %s", uri, e);
+                    e.printStackTrace();
+                }
             }
-            SINK = sink;
-        } else {
-            SINK = null;
         }
+        sink = newSink;
     }
 
     private static void assertSink() {
-        if (SINK == null) {
+        if (sink == null) {
             throw new IllegalStateException("No sink configured. Are you sure TLC is running in monitor mode?");
         }
     }
@@ -60,7 +77,7 @@ public class Alerts {
     @TLAPlusOperator(identifier = "Alert", module = "Alerts")
     public static synchronized IValue alert(IValue value) throws IOException {
         assertSink();
-        SINK.produce(value);
+        sink.produce(value);
         return BoolValue.ValTrue;
     }
 }
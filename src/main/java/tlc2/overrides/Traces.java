@@ -15,23 +15,47 @@
  */
 package tlc2.overrides;
 
-import tlc2.TLCGlobals;
 import tlc2.monitor.source.Partition;
 import tlc2.monitor.source.Record;
 import tlc2.monitor.source.Source;
 import tlc2.monitor.source.Sources;
 import tlc2.monitor.util.Logger;
 import tlc2.monitor.util.ModuleLogger;
-import tlc2.tool.ModelChecker;
+import tlc2.tool.TLCState;
+import tlc2.util.FP64;
+import tlc2.util.IdThread;
+import tlc2.value.ValueInputStream;
+import tlc2.value.ValueOutputStream;
 import tlc2.value.impl.BoolValue;
 import tlc2.value.impl.IntValue;
+import tlc2.value.impl.SetEnumValue;
+import tlc2.value.impl.TupleValue;
 import tlc2.value.impl.Value;
+import tlc2.value.impl.ValueVec;
 
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Trace utilities.
+ * <p>
+ * When a bounded window is configured, the window's records are loaded into an index-addressed buffer before the
+ * window is checked, so {@code Trace} and {@code UpperBound} read records from memory rather than from the source.
+ * Records outside the buffer are read from the partition. {@code TraceSlice} returns a range of traces as a single
+ * sequence, so specs that aggregate over the window's traces make one call rather than one call per trace.
+ * <p>
+ * The operators may be evaluated concurrently by multiple TLC workers. Each worker tracks the trace offset it last
+ * read, and the level of the state it was exploring when it read it, in its own {@link Cursor}, so the window bound
+ * evaluated by a worker depends only on the states that worker has explored.
  */
 public class Traces {
     private static final Logger LOGGER = new ModuleLogger();
@@ -40,62 +64,243 @@ public class Traces {
     public static final String PARTITION_ENV = "TLC_TRACES_PARTITION";
     public static final String WINDOW_START_ENV = "TLC_TRACES_WINDOW_START";
     public static final String WINDOW_END_ENV = "TLC_TRACES_WINDOW_END";
+    public static final String WINDOW_START_INDEX_ENV = "TLC_TRACES_WINDOW_START_INDEX";
+    public static final String WINDOW_END_INDEX_ENV = "TLC_TRACES_WINDOW_END_INDEX";
+    public static final String WINDOW_BASE_INDEX_ENV = "TLC_TRACES_WINDOW_BASE_INDEX";
+    public static final String STREAM_ENV = "TLC_TRACES_STREAM";
+    public static final String STREAM_PROGRESS_ENV = "TLC_TRACES_STREAM_PROGRESS";
+    public static final String CARRY_IN_ENV = "TLC_TRACES_CARRY_IN";
+    public static final String CARRY_OUT_ENV = "TLC_TRACES_CARRY_OUT";
+    public static final String STATE_DIR_ENV = "TLC_TRACES_STATE_DIR";
 
-    private static final Source SOURCE;
-    private static final Partition PARTITION;
+    private static final long STREAM_POLL_INTERVAL = 100;
+    private static final long UNRESOLVED = Long.MIN_VALUE;
+    private static final long UNBOUNDED = Long.MAX_VALUE;
+    private static final int NO_OFFSET = Integer.MIN_VALUE;
 
-    private static final Long START_TIME;
-    private static final Long END_TIME;
+    private static final Map<String, Source> SOURCES = new ConcurrentHashMap<>();
+
+    private static volatile Source source;
+    private static volatile Partition partition;
+
+    private static volatile Long startTime;
+    private static volatile Long endTime;
+    private static volatile Long startIndex;
+    private static volatile Long endIndex;
+    private static volatile Long baseIndex;
+    private static volatile boolean stream;
+    private static volatile File progress;
+    private static volatile long reached;
     private static volatile Long index;
+    private static volatile long head;
+    private static volatile int firstOffset;
+
+    private static volatile long bufferStart;
+    private static volatile Record[] buffer = new Record[0];
+
+    private static final ThreadLocal<Cursor> CURSOR = ThreadLocal.withInitial(Cursor::new);
+    private static volatile int generation;
+    private static volatile long boundOffset = UNRESOLVED;
+    private static volatile long lastOffset = UNRESOLVED;
 
-    private static Integer currentLevel;
-    private static Integer currentOffset;
-    private static Long upperBound;
+    private static File carryIn;
+    private static File carryOut;
+    private static SetEnumValue carriedStates;
+    private static ValueOutputStream carryOutput;
+    private static final Set<Long> carriedFingerprints = new HashSet<>();
 
     static {
-        String uri = System.getenv(SOURCE_ENV);
+        configure(System.getenv());
+    }
+
+    /**
+     * Configures the traces source and window from the given environment.
+     * <p>
+     * The configuration is read from the process environment when the module is loaded. Long-lived TLC workers
+     * reconfigure the module before each window is checked. Sources are cached by URI so a worker can reuse its
+     * connections across windows.
+     *
+     * @param env the environment from which to read the configuration
+     */
+    public static synchronized void configure(Map<String, String> env) {
+        String uri = env.get(SOURCE_ENV);
+        Source newSource = null;
         if (uri != null) {
-            Source source = null;
-            try {
-                source = Sources.getSource(uri);
-            } catch (URISyntaxException | IOException e) {
-                LOGGER.log("Failed to load source %s: %s", uri, e);
-                e.printStackTrace();
+            newSource = SOURCES.get(uri);
+            if (newSource == null) {
+                try {
+                    String stateDir = env.get(STATE_DIR_ENV);
+                    newSource = Sources.getSource(uri, stateDir != null ? new File(stateDir) : null);
+                    SOURCES.put(uri, newSource);
+                } catch (URISyntaxException | IOException e) {
+                    LOGGER.log("Failed to load source %s: %s", uri, e);
+                    e.printStackTrace();
+                }
             }
-            SOURCE = source;
-        } else {
-            SOURCE = null;
         }
+        source = newSource;
 
-        if (SOURCE != null) {
-            int partitionId = Integer.valueOf(System.getenv(PARTITION_ENV));
-            PARTITION = SOURCE.getPartition(partitionId);
+        if (source != null) {
+            int partitionId = Integer.valueOf(env.get(PARTITION_ENV));
+            partition = source.getPartition(partitionId);
+
+            // A cached source may predate the partition, e.g. a file added to a source directory.
+            if (partition == null) {
+                try {
+                    source.refresh();
+                } catch (IOException e) {
+                    LOGGER.log("Failed to refresh source %s: %s", uri, e);
+                }
+                partition = source.getPartition(partitionId);
+            }
         } else {
-            PARTITION = null;
+            partition = null;
+        }
+
+        String start = env.get(WINDOW_START_ENV);
+        startTime = start != null ? Long.parseLong(start) : null;
+        String end = env.get(WINDOW_END_ENV);
+        endTime = end != null ? Long.parseLong(end) : null;
+        String firstIndex = env.get(WINDOW_START_INDEX_ENV);
+        startIndex = firstIndex != null ? Long.parseLong(firstIndex) : null;
+        String lastIndex = env.get(WINDOW_END_INDEX_ENV);
+        endIndex = lastIndex != null ? Long.parseLong(lastIndex) : null;
+        String base = env.get(WINDOW_BASE_INDEX_ENV);
+        baseIndex = base != null ? Long.parseLong(base) : null;
+        stream = Boolean.parseBoolean(env.get(STREAM_ENV));
+        String progressFile = env.get(STREAM_PROGRESS_ENV);
+        progress = progressFile != null ? new File(progressFile) : null;
+        reached = 0;
+
+        index = null;
+        head = 0;
+        firstOffset = baseIndex != null && startIndex != null ? (int) (startIndex - baseIndex) : 0;
+        generation++;
+        boundOffset = UNRESOLVED;
+        lastOffset = UNRESOLVED;
+
+        closeCarryOutput();
+        String in = env.get(CARRY_IN_ENV);
+        carryIn = in != null ? new File(in) : null;
+        String out = env.get(CARRY_OUT_ENV);
+        carryOut = out != null ? new File(out) : null;
+        carriedStates = null;
+        carriedFingerprints.clear();
+
+        preload();
+        if (source != null) {
+            try {
+                resolveBound();
+            } catch (IOException e) {
+                LOGGER.log("Failed to resolve the end of the window in %s: %s", partition, e);
+            }
         }
     }
 
-    static {
-        String startTime = System.getenv(WINDOW_START_ENV);
-        if (startTime != null) {
-            START_TIME = Long.parseLong(startTime);
-        } else {
-            START_TIME = null;
+    /**
+     * Loads the records in the configured window into the buffer.
+     * <p>
+     * The buffer spans the first record in the window through the record that bounds the window: the last record
+     * before the exclusive end index for count-based windows, or the first record at or after the end time for time
+     * windows.
+     * Streams and unbounded windows are not buffered.
+     */
+    private static void preload() {
+        buffer = new Record[0];
+        bufferStart = 0;
+        if (partition == null || stream) {
+            return;
         }
-        String endTime = System.getenv(WINDOW_END_ENV);
-        if (endTime != null) {
-            END_TIME = Long.parseLong(endTime);
-        } else {
-            END_TIME = null;
+
+        try {
+            long first = startIndex != null ? startIndex : index() + 1;
+            long last;
+            if (endIndex != null) {
+                last = endIndex - 1;
+            } else if (endTime != null) {
+                last = partition.indexOf(endTime);
+            } else {
+                return;
+            }
+            last = Math.min(last, partition.indexOf(Long.MAX_VALUE));
+            if (last < first) {
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            List<Record> records = partition.getRange(first, last);
+            Record[] loaded = new Record[(int) (last - first + 1)];
+            for (Record record : records) {
+                loaded[(int) (record.index() - first)] = record;
+            }
+            bufferStart = first;
+            buffer = loaded;
+            LOGGER.log("Loaded %d records from %s in %dms", records.size(), partition, System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            LOGGER.log("Failed to load records from %s: %s", partition, e);
+        }
+    }
+
+    /**
+     * Returns the record at the given index, from the buffer if it has been loaded.
+     *
+     * @param index the index of the record to return
+     * @return the record at the given index
+     */
+    private static Record getRecord(long index) throws IOException {
+        Record[] records = buffer;
+        long offset = index - bufferStart;
+        if (offset >= 0 && offset < records.length && records[(int) offset] != null) {
+            return records[(int) offset];
+        }
+        return partition.get(index);
+    }
+
+    /**
+     * Closes the output to which boundary states are written, if open.
+     */
+    private static void closeCarryOutput() {
+        if (carryOutput != null) {
+            try {
+                carryOutput.close();
+            } catch (IOException e) {
+                LOGGER.log("Failed to close carried states %s: %s", carryOut, e);
+            }
+            carryOutput = null;
         }
     }
 
     private static void assertSource() {
-        if (SOURCE == null) {
+        if (source == null) {
             throw new IllegalStateException("No source configured. Are you sure TLC is running in monitor mode?");
         }
     }
 
+    /**
+     * Returns the calling worker's cursor, resetting it if the module has been reconfigured since it was last used.
+     *
+     * @return the calling worker's cursor
+     */
+    private static Cursor cursor() {
+        Cursor cursor = CURSOR.get();
+        if (cursor.generation != generation) {
+            cursor.generation = generation;
+            cursor.level = 0;
+            cursor.offset = NO_OFFSET;
+        }
+        return cursor;
+    }
+
+    /**
+     * Returns the level of the state the calling worker is exploring.
+     *
+     * @return the level of the worker's current state, or {@code 0} while initial states are generated
+     */
+    private static int getLevel() {
+        TLCState state = IdThread.getCurrentState();
+        return state != null ? state.getLevel() : 0;
+    }
+
     /**
      * Returns the index for the given offset.
      *
@@ -114,13 +319,25 @@ public class Traces {
     private static long index() throws IOException {
         assertSource();
         if (index == null) {
+            // If states are carried across windows, offsets are relative to the first window they were carried from.
+            if (baseIndex != null) {
+                index = baseIndex - 1;
+                return index;
+            }
+
+            // If the window is bounded by index, offset 1 is the first index in the window.
+            if (startIndex != null) {
+                index = startIndex - 1;
+                return index;
+            }
+
             // If the start time is not set, return an infinite lower bound.
-            if (START_TIME == null) {
+            if (startTime == null) {
                 return 0;
             }
 
             // Get the first offset following the configured start time.
-            long startIndex = PARTITION.indexOf(START_TIME);
+            long startIndex = partition.indexOf(startTime);
             if (startIndex == 0) {
                 index = 1L;
             } else {
@@ -130,48 +347,219 @@ public class Traces {
         return index;
     }
 
-    @TLAPlusOperator(identifier = "Trace", module = "Traces")
+    /**
+     * Returns the record at the given index, blocking until it has been appended to the partition.
+     *
+     * @param index the index of the record to return
+     * @return the record at the given index
+     */
+    private static Record awaitRecord(long index) throws IOException {
+        if (progress != null && index > reached) {
+            recordProgress(index);
+        }
+        for (; ; ) {
+            if (index <= head) {
+                Record record = partition.get(index);
+                if (record != null) {
+                    return record;
+                }
+            }
+
+            // Refresh the head of the partition, and wait for new records if the index has not been reached.
+            head = partition.indexOf(Long.MAX_VALUE);
+            if (index > head) {
+                try {
+                    Thread.sleep(STREAM_POLL_INTERVAL);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the highest index requested from the stream so the monitor can resume from it if TLC exits.
+     *
+     * @param index the requested index
+     */
+    private static synchronized void recordProgress(long index) {
+        if (index <= reached) {
+            return;
+        }
+        reached = index;
+        try {
+            Files.write(progress.toPath(), String.valueOf(index).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            LOGGER.log("Failed to record stream progress to %s: %s", progress, e);
+        }
+    }
+
+    @TLAPlusOperator(identifier = "Trace", module = "Traces", minLevel = 1)
     public static Value trace(IntValue offset) throws IOException {
         assertSource();
-        final ModelChecker mc = (ModelChecker) TLCGlobals.mainChecker;
-        currentLevel = mc.trace.getLevel();
-        currentOffset = offset.val;
-        return PARTITION.get(indexOf(offset.val)).value();
+        Cursor cursor = cursor();
+        cursor.level = getLevel();
+        cursor.offset = offset.val;
+        if (stream) {
+            return awaitRecord(indexOf(offset.val)).value();
+        }
+        Record record = getRecord(indexOf(offset.val));
+        if (record == null) {
+            throw new IOException(String.format("No trace at offset %d in %s", offset.val, partition));
+        }
+        return record.value();
+    }
+
+    @TLAPlusOperator(identifier = "TraceSlice", module = "Traces", minLevel = 1)
+    public static Value traceSlice(IntValue first, IntValue last) throws IOException {
+        assertSource();
+        Value[] values = new Value[Math.max(last.val - first.val + 1, 0)];
+        for (int i = 0; i < values.length; i++) {
+            long index = indexOf(first.val + i);
+            Record record = stream ? awaitRecord(index) : getRecord(index);
+            if (record == null) {
+                throw new IOException(String.format("No trace at offset %d in %s", first.val + i, partition));
+            }
+            values[i] = record.value();
+        }
+        return new TupleValue(values);
     }
 
-    @TLAPlusOperator(identifier = "UpperBound", module = "Traces")
+    @TLAPlusOperator(identifier = "WindowLength", module = "Traces", minLevel = 1)
+    public static Value windowLength() throws IOException {
+        assertSource();
+        long last = lastOffset;
+        if (last == UNRESOLVED) {
+            resolveBound();
+            last = lastOffset;
+        }
+
+        // Streams and windows without an end extend to the last trace in the partition.
+        if (last == UNBOUNDED) {
+            last = partition.indexOf(Long.MAX_VALUE) - index();
+        }
+        return IntValue.gen((int) Math.max(last, 0));
+    }
+
+    @TLAPlusOperator(identifier = "NextTrace", module = "Traces", minLevel = 1)
+    public static Value nextTrace() throws IOException {
+        // Each step consumes one trace, so the state being expanded has read one trace per level below it.
+        int level = getLevel();
+        if (level == 0) {
+            throw new IllegalStateException("NextTrace can only be used in the next-state relation");
+        }
+        return trace(IntValue.gen(firstOffset + level));
+    }
+
+    @TLAPlusOperator(identifier = "UpperBound", module = "Traces", minLevel = 1)
     public static Value upperBound() throws IOException {
         assertSource();
 
-        // If the trace level has reset, unset the level and offset.
-        final ModelChecker mc = (ModelChecker) TLCGlobals.mainChecker;
-        if (mc.trace.getLevel() < currentLevel) {
-            currentLevel = 0;
-            currentOffset = 0;
+        // Streams and windows without an end are unbounded.
+        long bound = boundOffset;
+        if (bound == UNRESOLVED) {
+            bound = resolveBound();
+        }
+        if (bound == UNBOUNDED) {
             return BoolValue.ValFalse;
         }
 
-        // If the end time is not set, return an infinite upper bound.
-        if (END_TIME == null) {
+        // If the worker has not read a trace, it cannot be beyond the end of the window.
+        Cursor cursor = cursor();
+        if (cursor.offset == NO_OFFSET) {
             return BoolValue.ValFalse;
         }
 
-        // If the current offset is not set, return false.
-        if (currentOffset == null) {
+        // If the trace level has reset, unset the level and offset.
+        if (getLevel() < cursor.level) {
+            cursor.level = 0;
+            cursor.offset = 0;
             return BoolValue.ValFalse;
         }
+        return cursor.offset >= bound ? BoolValue.ValTrue : BoolValue.ValFalse;
+    }
 
-        // If the upper bound is set, return whether the current offset is greater than the upper bound.
-        if (upperBound != null) {
-            return currentOffset >= upperBound ? BoolValue.ValTrue : BoolValue.ValFalse;
+    /**
+     * Resolves the offset at which the window ends.
+     * <p>
+     * {@code UpperBound} is true once a worker has read the trace at or beyond the resolved offset: the offset of
+     * the last record in the window, which is the last record before the exclusive end index for count-based
+     * windows, or the last record before the end time for time windows. TLC therefore never reads a record
+     * belonging to the next window, which may not have been appended yet. The offset is resolved once when the
+     * module is configured, so {@code UpperBound} is an integer comparison.
+     *
+     * @return the offset at which the window ends, or {@link #UNBOUNDED} if the window has no end
+     */
+    private static synchronized long resolveBound() throws IOException {
+        if (boundOffset != UNRESOLVED) {
+            return boundOffset;
+        }
+        long bound = UNBOUNDED;
+        long last = UNBOUNDED;
+        if (partition != null && !stream) {
+            if (endIndex != null) {
+                bound = endIndex - 1 - index();
+                last = bound;
+            } else if (endTime != null) {
+                long end = partition.indexOf(endTime);
+                if (end != 0) {
+                    // If no record has reached the end time, the window ends after the last record.
+                    Record record = getRecord(end);
+                    if (record == null || record.timestamp() < endTime) {
+                        end = partition.indexOf(Long.MAX_VALUE) + 1;
+                    }
+                    bound = end - 1 - index();
+                    last = bound;
+                }
+            }
         }
+        lastOffset = last;
+        boundOffset = bound;
+        return bound;
+    }
 
-        // Get the next offset and determine whether it exceeds the upper bound.
-        Record record = PARTITION.get(indexOf(currentOffset + 1));
-        if (record.timestamp() >= END_TIME) {
-            upperBound = currentOffset + 1L;
+    @TLAPlusOperator(identifier = "CarriedStates", module = "Traces", minLevel = 1)
+    public static synchronized Value carriedStates() throws IOException {
+        if (carriedStates == null) {
+            ValueVec states = new ValueVec();
+            if (carryIn != null && carryIn.exists()) {
+                ValueInputStream input = new ValueInputStream(carryIn, false);
+                try {
+                    for (; ; ) {
+                        states.addElement((Value) input.read());
+                    }
+                } catch (EOFException e) {
+                    // All states have been read.
+                } finally {
+                    input.close();
+                }
+                LOGGER.log("Loaded %d carried states from %s", states.size(), carryIn);
+            }
+            carriedStates = new SetEnumValue(states, false);
+        }
+        return carriedStates;
+    }
+
+    @TLAPlusOperator(identifier = "CarryState", module = "Traces")
+    public static synchronized Value carryState(Value vars) throws IOException {
+        if (carryOut == null || !carriedFingerprints.add(vars.fingerPrint(FP64.New()))) {
             return BoolValue.ValTrue;
         }
-        return BoolValue.ValFalse;
+        if (carryOutput == null) {
+            carryOutput = new ValueOutputStream(carryOut, false);
+        }
+        vars.write(carryOutput);
+        carryOutput.getOutputStream().flush();
+        return BoolValue.ValTrue;
+    }
+
+    /**
+     * Position of a TLC worker in the trace.
+     */
+    private static final class Cursor {
+        private int generation = -1;
+        private int level;
+        private int offset = NO_OFFSET;
     }
 }
@@ -8,6 +8,16 @@ LOCAL INSTANCE Integers
 
 Trace(offset) == CHOOSE val : TRUE
 
+TraceSlice(first, last) == [i \in 1..(last - first + 1) |-> Trace(first + i - 1)]
+
+WindowLength == CHOOSE n \in Nat : TRUE
+
+NextTrace == CHOOSE val : TRUE
+
 UpperBound == TRUE
 
+CarriedStates == {}
+
+CarryState(vars) == TRUE
+
 ============================================================================
\ No newline at end of file